@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import org.mongeez.validation.ValidationException;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A hash of everything that decides what a run would execute: the ordered change files, their names and content, and
+ * the context. It is computed from the raw files, without parsing them, and doesn't depend on where the changelog is
+ * deployed.
+ */
+class ChangeLogFingerprint {
+    /**
+     * Bump when changing how changelogs are executed, so that changelogs applied by older versions are checked again
+     */
+    private static final int VERSION = 1;
+
+    private ChangeLogFingerprint() {
+    }
+
+    static String compute(List<Resource> files, String context) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, "v" + VERSION);
+        update(digest, context == null ? "" : context.toLowerCase().trim());
+        byte[] buffer = new byte[8192];
+        for (Resource file : files) {
+            // the file name rather than the description, which holds the absolute path of file system resources
+            String name = file.getFilename();
+            update(digest, name == null ? "" : name);
+            try (InputStream in = file.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new ValidationException(e);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // length prefixed, so that consecutive values can't run into each other
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+}
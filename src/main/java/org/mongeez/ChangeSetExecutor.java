@@ -15,7 +15,14 @@ package org.mongeez;
 
 import org.mongeez.commands.ChangeSet;
 import org.mongeez.commands.Script;
+import org.mongeez.dao.ChangeSetClaims;
+import org.mongeez.dao.ChangeSetExecutionStats;
 import org.mongeez.dao.MongeezDao;
+import org.mongeez.dao.ProfilerCapture;
+import org.mongeez.metrics.MetricNames;
+import org.mongeez.metrics.MetricsRecorder;
+import org.mongeez.metrics.MetricsTimer;
+import org.mongeez.metrics.NoopMetricsRecorder;
 
 import com.mongodb.client.MongoClient;
 import org.mongeez.dao.MongoShellScriptExecutor;
@@ -24,17 +31,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class ChangeSetExecutor {
     private final Logger logger = LoggerFactory.getLogger(ChangeSetExecutor.class);
 
+    private static final long MIN_CLAIM_BACKOFF_MILLIS = 100;
+    private static final long MAX_CLAIM_BACKOFF_MILLIS = 5000;
+
     private MongeezDao dao = null;
     private String context = null;
+    private ChangeSetClaims claims = null;
+    private MetricsRecorder metrics = NoopMetricsRecorder.INSTANCE;
+    private String executorName = null;
+    private ExecutionListeners listeners = new ExecutionListeners(new ArrayList<ExecutionListener>());
+    private ProfilerCapture profiler = null;
 
     /**
      * This executes scripts with a {@link org.mongeez.dao.MongoShellScriptExecutor} which needs
@@ -55,33 +79,278 @@ public class ChangeSetExecutor {
         this.context = context;
     }
 
+    /**
+     * This executes scripts with the executor of the provided dao
+     */
+    public ChangeSetExecutor(MongeezDao dao, String context) {
+        this.dao = dao;
+        this.context = context;
+    }
+
+    /**
+     * Shares the execution of changesets with other nodes running the same changesets at the same time: each
+     * changeset is run by the node which claims it, the others going on with the changesets it doesn't depend on,
+     * and waiting for it to be recorded before running the changesets that depend on it. Each node then runs one
+     * changeset at a time.
+     * @see ChangeSetScheduler#getDependencies(List)
+     */
+    public void setChangeSetClaims(ChangeSetClaims claims) {
+        this.claims = claims;
+    }
+
+    public void setMetricsRecorder(MetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setExecutionListeners(List<ExecutionListener> listeners) {
+        this.listeners = new ExecutionListeners(listeners);
+    }
+
+    /**
+     * Profiles the slow operations of each changeset, keeping their summary in its execution record. The profiler
+     * covers the whole database, so changesets running in parallel share their summaries.
+     */
+    public void setProfilerCapture(ProfilerCapture profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Runs the changesets in order. When the executor can run several scripts at the same time, changesets that are
+     * not {@link ChangeSet#isOrdered() ordered} run in parallel as their dependencies allow, and are still logged in
+     * order.
+     * @see ChangeSetScheduler
+     */
     public void execute(List<ChangeSet> changeSets) {
+        long start = System.nanoTime();
+        listeners.runStarted(changeSets, context);
+        try {
+            executePending(changeSets);
+        } catch (RuntimeException e) {
+            // record whatever completed before failing
+            try {
+                dao.flush();
+            } catch (RuntimeException flushFailure) {
+                e.addSuppressed(flushFailure);
+            }
+            listeners.runFinished(System.nanoTime() - start, e);
+            throw e;
+        }
+        try {
+            dao.flush();
+        } catch (RuntimeException e) {
+            listeners.runFinished(System.nanoTime() - start, e);
+            throw e;
+        }
+        listeners.runFinished(System.nanoTime() - start, null);
+    }
+
+    private void executePending(List<ChangeSet> changeSets) {
+        List<ChangeSet> pendingChangeSets = new ArrayList<ChangeSet>();
         for (ChangeSet changeSet : changeSets) {
             if (changeSet.canBeAppliedInContext(context)) {
-                if (changeSet.isRunAlways() || !dao.wasExecuted(changeSet)) {
-                    execute(changeSet);
-                    logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed");
+                if (changeSet.isRunAlways() || !wasExecuted(changeSet)) {
+                    pendingChangeSets.add(changeSet);
                 } else {
                     logger.info("ChangeSet already executed: " + changeSet.getChangeId());
+                    metrics.increment(MetricNames.CHANGESETS_SKIPPED, 1, MetricNames.REASON_TAG, "executed");
+                    listeners.changeSetSkipped(changeSet, ExecutionListener.SkipReason.EXECUTED);
                 }
             }
             else {
                 logger.info("Not executing Changeset {} it cannot run in the context {}", changeSet.getChangeId(), context);
+                metrics.increment(MetricNames.CHANGESETS_SKIPPED, 1, MetricNames.REASON_TAG, "context");
+                listeners.changeSetSkipped(changeSet, ExecutionListener.SkipReason.CONTEXT);
+            }
+        }
+        if (pendingChangeSets.isEmpty()) {
+            return;
+        }
+        executorName = dao.getExecutorName();
+
+        int maxConcurrency = dao.getMaxConcurrency();
+        if (claims != null) {
+            executeClaimed(pendingChangeSets);
+        } else if (maxConcurrency > 1) {
+            final Map<ChangeSet, ChangeSetExecutionStats> stats =
+                    Collections.synchronizedMap(new IdentityHashMap<ChangeSet, ChangeSetExecutionStats>());
+            new ChangeSetScheduler(maxConcurrency).execute(pendingChangeSets,
+                    new ChangeSetScheduler.ChangeSetAction() {
+                        @Override
+                        public void apply(ChangeSet changeSet) {
+                            stats.put(changeSet, runCommands(changeSet));
+                        }
+                    },
+                    new ChangeSetScheduler.ChangeSetAction() {
+                        @Override
+                        public void apply(ChangeSet changeSet) {
+                            logChangeSet(changeSet, stats.remove(changeSet));
+                            logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed");
+                        }
+                    });
+        } else {
+            for (ChangeSet changeSet : pendingChangeSets) {
+                execute(changeSet);
+                logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed");
             }
         }
     }
 
+    private boolean wasExecuted(ChangeSet changeSet) {
+        try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.EXECUTED_LOOKUP)) {
+            boolean executed = dao.wasExecuted(changeSet);
+            timer.stop();
+            return executed;
+        }
+    }
+
     private void execute(ChangeSet changeSet) {
+        logChangeSet(changeSet, runCommands(changeSet));
+    }
+
+    private void logChangeSet(ChangeSet changeSet, ChangeSetExecutionStats stats) {
+        try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.EXECUTION_LOG,
+                MetricNames.CHANGESET_TAG, changeSet.getChangeId(), MetricNames.FILE_TAG, changeSet.getFile())) {
+            dao.logChangeSet(changeSet, stats);
+            timer.stop();
+        }
+        metrics.increment(MetricNames.CHANGESETS_EXECUTED, 1, MetricNames.EXECUTOR_TAG, executorName);
+    }
+
+    /**
+     * Runs the changesets whose dependencies have been executed, by this node or another one, and that no other node
+     * has claimed, polling with an exponential backoff while there are none
+     */
+    private void executeClaimed(List<ChangeSet> pendingChangeSets) {
+        List<Set<Integer>> dependencies = ChangeSetScheduler.getDependencies(pendingChangeSets);
+        boolean[] executed = new boolean[pendingChangeSets.size()];
+        int remaining = pendingChangeSets.size();
+        long backoff = MIN_CLAIM_BACKOFF_MILLIS;
+        while (remaining > 0) {
+            boolean progress = false;
+            for (int i = 0; i < pendingChangeSets.size(); i++) {
+                if (!executed[i] && areExecuted(dependencies.get(i), executed)
+                        && executeClaimed(pendingChangeSets.get(i))) {
+                    executed[i] = true;
+                    remaining--;
+                    progress = true;
+                }
+            }
+            if (progress) {
+                backoff = MIN_CLAIM_BACKOFF_MILLIS;
+            } else if (remaining > 0) {
+                logger.info("Waiting for {} changesets claimed by other nodes", remaining);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for changesets claimed by other nodes", e);
+                }
+                backoff = Math.min(backoff * 2, MAX_CLAIM_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * @return whether the changeset has been executed, false if another node is executing it
+     */
+    private boolean executeClaimed(ChangeSet changeSet) {
+        if (changeSet.isRunAlways()) {
+            // every node runs these
+            execute(changeSet);
+            logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed");
+            return true;
+        }
+        if (dao.checkExecuted(changeSet)) {
+            logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed by another node");
+            metrics.increment(MetricNames.CHANGESETS_SKIPPED, 1, MetricNames.REASON_TAG, "executedByOtherNode");
+            listeners.changeSetSkipped(changeSet, ExecutionListener.SkipReason.EXECUTED_BY_OTHER_NODE);
+            return true;
+        }
+        if (!claims.tryClaim(changeSet)) {
+            return false;
+        }
+        try {
+            // the node which released the claim just before may have executed it
+            if (dao.checkExecuted(changeSet)) {
+                logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed by another node");
+                metrics.increment(MetricNames.CHANGESETS_SKIPPED, 1, MetricNames.REASON_TAG, "executedByOtherNode");
+                listeners.changeSetSkipped(changeSet, ExecutionListener.SkipReason.EXECUTED_BY_OTHER_NODE);
+                return true;
+            }
+            execute(changeSet);
+            // others take the changeset as not executed until its record is written
+            dao.flush();
+            logger.info("ChangeSet " + changeSet.getChangeId() + " has been executed");
+            return true;
+        } finally {
+            claims.release(changeSet);
+        }
+    }
+
+    private static boolean areExecuted(Set<Integer> changeSets, boolean[] executed) {
+        for (int changeSet : changeSets) {
+            if (!executed[changeSet]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return how the execution went, to be recorded with it
+     */
+    private ChangeSetExecutionStats runCommands(ChangeSet changeSet) {
+        ProfilerCapture.Window profile = profiler != null ? profiler.start() : null;
+        if (profile == null) {
+            return runScripts(changeSet);
+        }
+        ChangeSetExecutionStats stats;
+        try {
+            stats = runScripts(changeSet);
+        } catch (RuntimeException e) {
+            // restores the profiling level when the changeset fails
+            profile.stop();
+            throw e;
+        }
+        stats.setProfile(profile.stop());
+        return stats;
+    }
+
+    private ChangeSetExecutionStats runScripts(ChangeSet changeSet) {
+        Date startedAt = new Date();
+        long start = System.nanoTime();
+        long totalBytes = 0;
+        long docsAffected = 0;
+        listeners.changeSetStarted(changeSet);
         File changesetTempFile = null;
         try {
             for (Script command : changeSet.getCommands()) {
-              changesetTempFile = File.createTempFile(getTempFilePath(changeSet), ".js");
-              writeChangeSetBodyToFile(command.getBody(), changesetTempFile.getPath());
-              dao.runScript(changesetTempFile.getAbsolutePath());
-              deleteFile(changesetTempFile);
+              try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.SCRIPT_EXECUTION,
+                  MetricNames.CHANGESET_TAG, changeSet.getChangeId(), MetricNames.FILE_TAG, changeSet.getFile(),
+                  MetricNames.EXECUTOR_TAG, executorName)) {
+                long scriptBytes = getScriptBytes(command);
+                totalBytes += scriptBytes;
+                timer.setBytes(scriptBytes);
+                listeners.scriptStarted(changeSet, command, scriptBytes);
+                // large scripts are copied to the temporary file in chunks, rather than being passed whole
+                if (dao.canRunScriptBody() && !command.isLarge()) {
+                  dao.runScriptBody(command.getBody());
+                } else {
+                  changesetTempFile = File.createTempFile(getTempFilePrefix(changeSet), ".js");
+                  writeChangeSetBodyToFile(command, changesetTempFile.getPath());
+                  dao.runScript(changesetTempFile.getAbsolutePath());
+                  deleteFile(changesetTempFile);
+                  changesetTempFile = null;
+                }
+                long scriptDocsAffected = dao.getDocumentsAffected();
+                docsAffected = docsAffected < 0 || scriptDocsAffected < 0 ? -1 : docsAffected + scriptDocsAffected;
+                listeners.scriptFinished(changeSet, command, timer.stop());
+              }
             }
+            listeners.changeSetFinished(changeSet, System.nanoTime() - start);
         } catch (RuntimeException e) {
             deleteFile(changesetTempFile);
+            failed(changeSet, e, start);
             if (changeSet.isFailOnError()) {
                 throw e;
             } else {
@@ -89,38 +358,100 @@ public class ChangeSetExecutor {
             }
         } catch (IOException e) {
             deleteFile(changesetTempFile);
+            failed(changeSet, e, start);
             if (changeSet.isFailOnError()) {
                 throw new RuntimeException(e);
             } else {
                 logger.warn("ChangeSet " + changeSet.getChangeId() + " has failed, but failOnError is set to false", e.getMessage());
             }
         }
-        dao.logChangeSet(changeSet);
+        return new ChangeSetExecutionStats(startedAt, new Date(), (System.nanoTime() - start) / 1000000, executorName,
+                totalBytes, docsAffected);
     }
 
-    private String getTempFilePath(ChangeSet changeSet) {
-      String resourcePath = changeSet.getResourcePath();
-      String changeFilePrefix = resourcePath.substring(0, resourcePath.lastIndexOf("."));
-      return changeFilePrefix + "." + changeSet.getChangeId();
+    private void failed(ChangeSet changeSet, Exception error, long start) {
+        metrics.increment(MetricNames.CHANGESETS_FAILED, 1, MetricNames.CHANGESET_TAG, changeSet.getChangeId(),
+                MetricNames.FILE_TAG, changeSet.getFile(), MetricNames.EXECUTOR_TAG, executorName);
+        if (changeSet.isFailOnError()) {
+            listeners.changeSetFailed(changeSet, error, System.nanoTime() - start);
+        } else {
+            listeners.changeSetFailureSuppressed(changeSet, error, System.nanoTime() - start);
+        }
     }
 
-    private void writeChangeSetBodyToFile(String body, String filePath) {
-        PrintWriter out = null;
-  
-        try {
-          FileWriter fw = new FileWriter(filePath);
-          out = new PrintWriter(fw);
-          out.write(body);
-        } catch (IOException e) {
-            throw new RuntimeException("Unable to write to temporary changeset file" + filePath);
-        } finally {
-          if (out != null) {
-            out.close();
-          }
+    /**
+     * The size of scripts read lazily is known without loading them; the others are measured in UTF-8
+     */
+    private static long getScriptBytes(Script command) {
+        if (command.getSource() != null) {
+            return command.getSource().getLength();
         }
+        String body = command.getBody();
+        return body != null ? getUtf8Length(body) : 0;
+    }
+
+    /**
+     * Counts the bytes of the text in UTF-8 without encoding it, counting unpaired surrogates as the single byte they
+     * are replaced with
+     */
+    static long getUtf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Names the temporary file after the change file, without its directories, which createTempFile rejects; only
+     * changesets read from the classpath have a resource path
+     */
+    static String getTempFilePrefix(ChangeSet changeSet) {
+      String name = changeSet.getFile();
+      if (name == null && changeSet.getResourcePath() != null) {
+        name = changeSet.getResourcePath().substring(changeSet.getResourcePath().lastIndexOf('/') + 1);
+      }
+      if (name == null) {
+        name = "changeset";
+      } else if (name.lastIndexOf('.') > 0) {
+        name = name.substring(0, name.lastIndexOf('.'));
       }
+      return name + "." + changeSet.getChangeId();
+    }
+
+    /**
+     * Writes the body in UTF-8, which every executor reads script files in
+     */
+    static void writeChangeSetBodyToFile(Script command, String filePath) {
+        try (Reader body = command.openBody();
+             Writer out = new OutputStreamWriter(new FileOutputStream(filePath), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[64 * 1024];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write to temporary changeset file" + filePath, e);
+        }
+    }
 
     private void deleteFile(File file) {
+        if (file == null) {
+            return;
+        }
         try {
             file.delete();
         } catch (Exception e) {
@@ -0,0 +1,228 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.validation.ValidationException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs changesets as a dependency graph on a bounded fork-join pool, starting every changeset as soon as the
+ * changesets it depends on have completed.
+ * <p>
+ * A changeset depends on:
+ * <ul>
+ *     <li>every changeset before it, if it is {@link ChangeSet#isOrdered() ordered};</li>
+ *     <li>otherwise, the last ordered changeset before it, the changesets it declares in
+ *     {@link ChangeSet#getDependsOn() dependsOn}, and the earlier changesets declaring one of its
+ *     {@link ChangeSet#getCollections() collections}.</li>
+ * </ul>
+ * Completed changesets are reported in list order, whatever order they actually finished in.
+ */
+class ChangeSetScheduler {
+
+    interface ChangeSetAction {
+        void apply(ChangeSet changeSet);
+    }
+
+    private final int parallelism;
+
+    ChangeSetScheduler(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs the changesets, reporting each one to {@code onCompleted} in list order. If a changeset fails, the
+     * changesets depending on it are not run, the ones already running are waited for, every changeset that
+     * completed is still reported, and the first failure is then rethrown.
+     */
+    void execute(List<ChangeSet> changeSets, ChangeSetAction action, ChangeSetAction onCompleted) {
+        if (changeSets.isEmpty()) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            new Run(changeSets, action, onCompleted, pool).execute();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return for each changeset, the indexes of the earlier changesets it depends on
+     * @throws ValidationException if a changeset depends on one declared after it, whatever validator was used
+     */
+    static List<Set<Integer>> getDependencies(List<ChangeSet> changeSets) {
+        List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>();
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        Set<String> changeIds = new HashSet<String>();
+        for (ChangeSet changeSet : changeSets) {
+            changeIds.add(changeSet.getChangeId());
+        }
+        int lastOrdered = -1;
+        for (int i = 0; i < changeSets.size(); i++) {
+            ChangeSet changeSet = changeSets.get(i);
+            for (String dependsOn : changeSet.getDependsOnIds()) {
+                if (!indexes.containsKey(dependsOn) && changeIds.contains(dependsOn)) {
+                    throw new ValidationException("ChangeSet " + changeSet.getChangeId() + " depends on " + dependsOn
+                            + ", which is not declared before it.");
+                }
+            }
+            Set<Integer> changeSetDependencies = new HashSet<Integer>();
+            if (lastOrdered >= 0) {
+                changeSetDependencies.add(lastOrdered);
+            }
+            if (changeSet.isOrdered()) {
+                for (int j = lastOrdered + 1; j < i; j++) {
+                    changeSetDependencies.add(j);
+                }
+                lastOrdered = i;
+            } else {
+                for (String dependsOn : changeSet.getDependsOnIds()) {
+                    // dependencies missing from the list have already been executed, or are out of context
+                    Integer dependency = indexes.get(dependsOn);
+                    if (dependency != null) {
+                        changeSetDependencies.add(dependency);
+                    }
+                }
+                List<String> collections = changeSet.getCollectionNames();
+                for (int j = lastOrdered + 1; j < i && !collections.isEmpty(); j++) {
+                    for (String collection : changeSets.get(j).getCollectionNames()) {
+                        if (collections.contains(collection)) {
+                            changeSetDependencies.add(j);
+                        }
+                    }
+                }
+            }
+            dependencies.add(changeSetDependencies);
+            indexes.put(changeSet.getChangeId(), i);
+        }
+        return dependencies;
+    }
+
+    private static class Run {
+        private final List<ChangeSet> changeSets;
+        private final ChangeSetAction action;
+        private final ChangeSetAction onCompleted;
+        private final ForkJoinPool pool;
+
+        private final int[] remainingDependencies;
+        private final List<List<Integer>> dependents = new ArrayList<List<Integer>>();
+        private final boolean[] succeeded;
+        private int nextToReport = 0;
+        private int running = 0;
+        private Throwable failure = null;
+
+        Run(List<ChangeSet> changeSets, ChangeSetAction action, ChangeSetAction onCompleted, ForkJoinPool pool) {
+            this.changeSets = changeSets;
+            this.action = action;
+            this.onCompleted = onCompleted;
+            this.pool = pool;
+            remainingDependencies = new int[changeSets.size()];
+            succeeded = new boolean[changeSets.size()];
+
+            List<Set<Integer>> dependencies = getDependencies(changeSets);
+            for (int i = 0; i < changeSets.size(); i++) {
+                dependents.add(new ArrayList<Integer>());
+            }
+            for (int i = 0; i < changeSets.size(); i++) {
+                remainingDependencies[i] = dependencies.get(i).size();
+                for (int dependency : dependencies.get(i)) {
+                    dependents.get(dependency).add(i);
+                }
+            }
+        }
+
+        synchronized void execute() {
+            for (int i = 0; i < changeSets.size(); i++) {
+                if (remainingDependencies[i] == 0) {
+                    submit(i);
+                }
+            }
+            try {
+                while (running > 0) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while executing changesets", e);
+            }
+
+            // changesets that completed after a failure still have to be recorded, as they won't be rolled back
+            for (int i = nextToReport; i < changeSets.size(); i++) {
+                if (succeeded[i]) {
+                    report(i);
+                }
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+
+        private void submit(final int index) {
+            running++;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        action.apply(changeSets.get(index));
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                    finished(index, error);
+                }
+            });
+        }
+
+        private synchronized void finished(int index, Throwable error) {
+            running--;
+            if (error != null) {
+                fail(error);
+            } else {
+                succeeded[index] = true;
+                while (failure == null && nextToReport < changeSets.size() && succeeded[nextToReport]) {
+                    report(nextToReport++);
+                }
+                for (int dependent : dependents.get(index)) {
+                    if (--remainingDependencies[dependent] == 0 && failure == null) {
+                        submit(dependent);
+                    }
+                }
+            }
+            notifyAll();
+        }
+
+        private void report(int index) {
+            try {
+                onCompleted.apply(changeSets.get(index));
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (failure == null) {
+                failure = error;
+            }
+        }
+    }
+}
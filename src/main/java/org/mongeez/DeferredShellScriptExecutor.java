@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import org.mongeez.dao.ShellScriptExecutor;
+
+import java.util.concurrent.Future;
+
+/**
+ * An executor that is still starting up; every call waits for it to be ready first, and fails if it couldn't start
+ */
+class DeferredShellScriptExecutor implements ShellScriptExecutor {
+    private final Future<ShellScriptExecutor> executor;
+
+    DeferredShellScriptExecutor(Future<ShellScriptExecutor> executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void runScript(String filePath) {
+        Mongeez.await(executor).runScript(filePath);
+    }
+
+    @Override
+    public boolean canRunScriptBody() {
+        return Mongeez.await(executor).canRunScriptBody();
+    }
+
+    @Override
+    public void runScriptBody(String body) {
+        Mongeez.await(executor).runScriptBody(body);
+    }
+
+    @Override
+    public long getDocumentsAffected() {
+        return Mongeez.await(executor).getDocumentsAffected();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return Mongeez.await(executor).getMaxConcurrency();
+    }
+
+    @Override
+    public String getName() {
+        return Mongeez.await(executor).getName();
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        Mongeez.await(executor).shutdown();
+    }
+}
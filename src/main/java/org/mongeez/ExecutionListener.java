@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+
+import java.util.List;
+
+/**
+ * Told about every step of executing changesets, with timings in nanoseconds. Every method does nothing by default.
+ * <p>
+ * When changesets run in parallel, the events of different changesets come from different threads and interleave.
+ * An exception thrown by a listener is logged, and doesn't stop the execution.
+ * @see Mongeez#addExecutionListener(ExecutionListener)
+ */
+public interface ExecutionListener {
+
+    enum SkipReason {
+        /** The changeset cannot run in the context */
+        CONTEXT,
+        /** The changeset has already been executed */
+        EXECUTED,
+        /** Another node executed the changeset during this run */
+        EXECUTED_BY_OTHER_NODE
+    }
+
+    /**
+     * @param changeSets all the changesets of the run, including the ones which will be skipped
+     */
+    default void runStarted(List<ChangeSet> changeSets, String context) {
+    }
+
+    default void changeSetSkipped(ChangeSet changeSet, SkipReason reason) {
+    }
+
+    default void changeSetStarted(ChangeSet changeSet) {
+    }
+
+    /**
+     * @param scriptBytes the size of the script as stored in its change file, or of its body in UTF-8
+     */
+    default void scriptStarted(ChangeSet changeSet, Script script, long scriptBytes) {
+    }
+
+    default void scriptFinished(ChangeSet changeSet, Script script, long nanos) {
+    }
+
+    /**
+     * All the scripts of the changeset have run; its execution record is written afterwards
+     */
+    default void changeSetFinished(ChangeSet changeSet, long nanos) {
+    }
+
+    /**
+     * A script of the changeset failed, and the run is stopped
+     */
+    default void changeSetFailed(ChangeSet changeSet, Exception error, long nanos) {
+    }
+
+    /**
+     * A script of the changeset failed, but the changeset is recorded as executed and the run goes on, as it is not
+     * {@link ChangeSet#isFailOnError() failOnError}
+     */
+    default void changeSetFailureSuppressed(ChangeSet changeSet, Exception error, long nanos) {
+    }
+
+    /**
+     * @param failure what stopped the run, or null if it completed
+     */
+    default void runFinished(long nanos, Exception failure) {
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands every event to each listener in turn, logging the exceptions they throw instead of passing them on
+ */
+class ExecutionListeners implements ExecutionListener {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionListeners.class);
+
+    private final List<ExecutionListener> listeners;
+
+    ExecutionListeners(List<ExecutionListener> listeners) {
+        this.listeners = new ArrayList<ExecutionListener>(listeners);
+    }
+
+    boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    @Override
+    public void runStarted(List<ChangeSet> changeSets, String context) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.runStarted(changeSets, context);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void changeSetSkipped(ChangeSet changeSet, SkipReason reason) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.changeSetSkipped(changeSet, reason);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void changeSetStarted(ChangeSet changeSet) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.changeSetStarted(changeSet);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void scriptStarted(ChangeSet changeSet, Script script, long scriptBytes) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.scriptStarted(changeSet, script, scriptBytes);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void scriptFinished(ChangeSet changeSet, Script script, long nanos) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.scriptFinished(changeSet, script, nanos);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void changeSetFinished(ChangeSet changeSet, long nanos) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.changeSetFinished(changeSet, nanos);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void changeSetFailed(ChangeSet changeSet, Exception error, long nanos) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.changeSetFailed(changeSet, error, nanos);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void changeSetFailureSuppressed(ChangeSet changeSet, Exception error, long nanos) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.changeSetFailureSuppressed(changeSet, error, nanos);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void runFinished(long nanos, Exception failure) {
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.runFinished(nanos, failure);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    private void failed(ExecutionListener listener, RuntimeException e) {
+        logger.warn("Execution listener " + listener.getClass().getName() + " failed", e);
+    }
+}
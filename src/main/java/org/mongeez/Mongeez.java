@@ -13,10 +13,25 @@
 
 package org.mongeez;
 
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClients;
 import org.mongeez.commands.ChangeSet;
 import org.mongeez.commands.Script;
+import org.mongeez.dao.ChangeLogFingerprintDao;
+import org.mongeez.dao.ChangeSetClaims;
+import org.mongeez.dao.MongeezDao;
+import org.mongeez.dao.MongeezLock;
+import org.mongeez.dao.MongoShellScriptExecutor;
+import org.mongeez.dao.ProfilerCapture;
+import org.mongeez.dao.ShellScriptExecutor;
+import org.mongeez.dao.ShellScriptExecutorPool;
+import org.mongeez.metrics.MetricNames;
+import org.mongeez.metrics.MetricsRecorder;
+import org.mongeez.metrics.MetricsTimer;
+import org.mongeez.metrics.NoopMetricsRecorder;
 import org.mongeez.reader.ChangeSetFileProvider;
+import org.mongeez.reader.ChangeSetParseCache;
+import org.mongeez.reader.ChangeSetReader;
 import org.mongeez.reader.ChangeSetReaderFactory;
 import org.mongeez.reader.FilesetXMLChangeSetFileProvider;
 import org.mongeez.validation.ChangeSetsValidator;
@@ -28,8 +43,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 
 
 public class Mongeez {
@@ -41,34 +64,305 @@ public class Mongeez {
     private String context = null;
     private MongoClient mongoClient;
     private String mongoClientUri;
+    private int shellPoolSize = 1;
+    private ShellScriptExecutor shellScriptExecutor = null;
+    private int executionLogBatchSize = 1;
+    private WriteConcern executionLogWriteConcern = null;
+    private ChangeSetParseCache parseCache = null;
+    private boolean changeLogFingerprintEnabled = false;
+    private int parserThreads = 1;
+    private boolean lockEnabled = false;
+    private long lockLeaseMillis = 60000;
+    private long lockWaitMillis = 600000;
+    private boolean cooperativeExecution = false;
+    private MetricsRecorder metrics = NoopMetricsRecorder.INSTANCE;
+    private String releaseLabel = null;
+    private int profilerSlowMillis = -1;
+    private boolean reuseShellScriptExecutor = false;
+    private List<ExecutionListener> executionListeners = new ArrayList<ExecutionListener>();
+
+    private Future<ShellScriptExecutor> executor = null;
+    private Future<MongeezDao> dao = null;
 
   public void executeAllChanges() {
-        List<ChangeSet> changeSets = getChangeSets();
-        new ChangeSetExecutor(mongoClient, mongoClientUri, context, dbName).execute(changeSets);
+        execute();
     }
 
     public void process() {
-        List<ChangeSet> changeSets = getChangeSets();
-        new ChangeSetExecutor(mongoClient, mongoClientUri, context, dbName).execute(changeSets);
+        execute();
+    }
+
+    /**
+     * Starts the shell and configures the mongeez collection in the background while the change files are parsed, and
+     * only waits for them once the changesets are ready to be executed. The shell is stopped at the end of the run,
+     * unless it is {@link #setReuseShellScriptExecutor(boolean) reused} by later runs.
+     */
+    private synchronized void execute() {
+        List<Resource> files = getChangeSetFiles();
+        String fingerprint = null;
+        ChangeLogFingerprintDao fingerprintDao = null;
+        if (changeLogFingerprintEnabled) {
+            fingerprint = ChangeLogFingerprint.compute(files, context);
+            fingerprintDao = new ChangeLogFingerprintDao(mongoClient, dbName);
+            if (fingerprintDao.isApplied(fingerprint)) {
+                logger.info("Changelog {} is already applied", fingerprint);
+                return;
+            }
+        }
+
+        if (!lockEnabled) {
+            execute(files, fingerprintDao, fingerprint);
+            return;
+        }
+        final ChangeLogFingerprintDao appliedFingerprintDao = fingerprintDao;
+        final String appliedFingerprint = fingerprint;
+        MongeezLock lock = new MongeezLock(mongoClient, dbName, lockLeaseMillis);
+        boolean acquired = lock.acquire(lockWaitMillis, new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return appliedFingerprintDao != null && appliedFingerprintDao.isApplied(appliedFingerprint);
+            }
+        });
+        if (!acquired) {
+            logger.info("Changelog {} was applied by another node", fingerprint);
+            return;
+        }
+        try {
+            // the node which held the lock before may have applied it
+            if (fingerprintDao != null && fingerprintDao.isApplied(fingerprint)) {
+                logger.info("Changelog {} was applied by another node", fingerprint);
+                return;
+            }
+            execute(files, fingerprintDao, fingerprint);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void execute(List<Resource> files, ChangeLogFingerprintDao fingerprintDao, String fingerprint) {
+        boolean started = dao != null;
+        boolean completed = false;
+        try {
+            if (!started) {
+                start();
+            }
+            List<ChangeSet> changeSets = getChangeSets(files);
+            MongeezDao mongeezDao = await(dao);
+            if (started) {
+                mongeezDao.refreshExecutedChangeSets();
+            }
+            ChangeSetExecutor changeSetExecutor = new ChangeSetExecutor(mongeezDao, context);
+            changeSetExecutor.setMetricsRecorder(metrics);
+            changeSetExecutor.setExecutionListeners(executionListeners);
+            if (profilerSlowMillis >= 0) {
+                changeSetExecutor.setProfilerCapture(new ProfilerCapture(mongoClient, dbName, profilerSlowMillis));
+            }
+            if (cooperativeExecution) {
+                changeSetExecutor.setChangeSetClaims(
+                        new ChangeSetClaims(mongoClient, dbName, mongeezDao, lockLeaseMillis));
+            }
+            changeSetExecutor.execute(changeSets);
+
+            if (fingerprintDao != null) {
+                // changesets which run always must be run every time, so the changelog is never skipped as a whole
+                if (hasRunAlwaysChangeSets(changeSets)) {
+                    fingerprintDao.clearApplied();
+                } else {
+                    fingerprintDao.saveApplied(fingerprint);
+                }
+            }
+            completed = true;
+        } finally {
+            // a failed run starts over with a new shell
+            if (!completed || !reuseShellScriptExecutor) {
+                shutdown();
+            }
+        }
+    }
+
+    private boolean hasRunAlwaysChangeSets(List<ChangeSet> changeSets) {
+        for (ChangeSet changeSet : changeSets) {
+            if (changeSet.isRunAlways() && changeSet.canBeAppliedInContext(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void start() {
+        ExecutorService startup = Executors.newFixedThreadPool(2);
+        executor = startup.submit(new Callable<ShellScriptExecutor>() {
+            @Override
+            public ShellScriptExecutor call() {
+                if (shellScriptExecutor != null) {
+                    return shellScriptExecutor;
+                }
+                try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.EXECUTOR_STARTUP)) {
+                    ShellScriptExecutor startedExecutor = createShellScriptExecutor();
+                    timer.tag(MetricNames.EXECUTOR_TAG, startedExecutor.getName()).stop();
+                    return startedExecutor;
+                }
+            }
+        });
+        final Future<ShellScriptExecutor> startingExecutor = executor;
+        dao = startup.submit(new Callable<MongeezDao>() {
+            @Override
+            public MongeezDao call() {
+                MongeezDao mongeezDao;
+                try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.DAO_CONFIGURE)) {
+                    mongeezDao = new MongeezDao(mongoClient, dbName, new DeferredShellScriptExecutor(startingExecutor));
+                    timer.stop();
+                }
+                mongeezDao.setExecutionLogBatchSize(executionLogBatchSize);
+                mongeezDao.setExecutionLogWriteConcern(executionLogWriteConcern);
+                mongeezDao.setReleaseLabel(releaseLabel);
+                return mongeezDao;
+            }
+        });
+        startup.shutdown();
+    }
+
+    /**
+     * Stops the mongo shells kept running by previous runs which {@link #setReuseShellScriptExecutor(boolean) reuse}
+     * them. Settings changed since the first run, other than the context and the changeset files, are applied from the
+     * next run.
+     */
+    public synchronized void shutdown() {
+        if (executor != null && shellScriptExecutor == null) {
+            shutdown(executor);
+        }
+        executor = null;
+        dao = null;
+    }
+
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for mongeez startup", e);
+        }
+    }
+
+    ShellScriptExecutor createShellScriptExecutor() {
+        if (shellPoolSize > 1) {
+            return new ShellScriptExecutorPool(shellPoolSize, new ShellScriptExecutorPool.ExecutorFactory() {
+                @Override
+                public ShellScriptExecutor create() {
+                    return new MongoShellScriptExecutor(mongoClientUri);
+                }
+            });
+        }
+        return new MongoShellScriptExecutor(mongoClientUri);
+    }
+
+    /**
+     * Waits for the shell to start even if the run was interrupted, as it would be left running otherwise
+     */
+    private void shutdown(Future<ShellScriptExecutor> executor) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            ShellScriptExecutor startedExecutor;
+            while (true) {
+                try {
+                    startedExecutor = executor.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            startedExecutor.shutdown();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (ExecutionException e) {
+            // it never started, and its failure has already been reported if it was needed
+            logger.debug("Shell executor failed to start", e.getCause());
+        } catch (RuntimeException e) {
+            logger.warn("Unable to shut down the shell executor", e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     public void verifyAllChanges() {
-        getChangeSets();
+        getChangeSets(getChangeSetFiles());
     }
 
-    private List<ChangeSet> getChangeSets() {
-        List<Resource> files = changeSetFileProvider.getChangeSetFiles();
+    private List<Resource> getChangeSetFiles() {
+        try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.FILE_DISCOVERY)) {
+            List<Resource> files = changeSetFileProvider.getChangeSetFiles();
+            timer.stop();
+            return files;
+        }
+    }
+
+    private List<ChangeSet> getChangeSets(List<Resource> files) {
         List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
 
-        ChangeSetReaderFactory readerFactory = ChangeSetReaderFactory.getInstance();
-        for (Resource file : files) {
-            changeSets.addAll(readerFactory.getChangeSetReader(file).getChangeSets(file));
+        if (parserThreads > 1 && files.size() > 1) {
+            ExecutorService parser = Executors.newFixedThreadPool(Math.min(parserThreads, files.size()));
+            try {
+                List<Future<List<ChangeSet>>> parsedFiles = new ArrayList<Future<List<ChangeSet>>>();
+                for (final Resource file : files) {
+                    parsedFiles.add(parser.submit(new Callable<List<ChangeSet>>() {
+                        @Override
+                        public List<ChangeSet> call() {
+                            return getChangeSets(file);
+                        }
+                    }));
+                }
+                // in fileset order, whichever file finishes first
+                for (Future<List<ChangeSet>> parsedFile : parsedFiles) {
+                    changeSets.addAll(await(parsedFile));
+                }
+            } finally {
+                parser.shutdownNow();
+            }
+        } else {
+            for (Resource file : files) {
+                changeSets.addAll(getChangeSets(file));
+            }
         }
         logChangeSets(changeSets);
-        changeSetsValidator.validate(changeSets);
+        try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.VALIDATION)) {
+            changeSetsValidator.validate(changeSets);
+            timer.stop();
+        }
         return changeSets;
     }
 
+    private List<ChangeSet> getChangeSets(Resource file) {
+        ChangeSetReader reader = ChangeSetReaderFactory.getInstance().getChangeSetReader(file);
+        try (MetricsTimer timer = MetricsTimer.start(metrics, MetricNames.PARSE, MetricNames.FILE_TAG,
+                file.getFilename(), MetricNames.READER_TAG, reader != null ? reader.getClass().getSimpleName() : null)) {
+            if (timer.isTraced()) {
+                timer.setBytes(getContentLength(file));
+            }
+            List<ChangeSet> changeSets =
+                    parseCache != null ? parseCache.getChangeSets(file, reader) : reader.getChangeSets(file);
+            timer.stop();
+            return changeSets;
+        }
+    }
+
+    private static long getContentLength(Resource file) {
+        try {
+            return file.contentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
     private void logChangeSets(List<ChangeSet> changeSets) {
         if (logger.isTraceEnabled()) {
             for (ChangeSet changeSet : changeSets) {
@@ -95,6 +389,30 @@ public class Mongeez {
         this.mongoClientUri = mongoUri;
     }
 
+    /**
+     * Sets the executor to run scripts with, instead of starting mongo shells. The executor is left running after
+     * changes have been executed.
+     * @see org.mongeez.dao.MongoDriverScriptExecutor
+     */
+    public void setShellScriptExecutor(ShellScriptExecutor shellScriptExecutor) {
+        this.shellScriptExecutor = shellScriptExecutor;
+    }
+
+    /**
+     * Sets how many changeset execution records are written together; defaults to 1
+     * @see MongeezDao#setExecutionLogBatchSize(int)
+     */
+    public void setExecutionLogBatchSize(int executionLogBatchSize) {
+        this.executionLogBatchSize = executionLogBatchSize;
+    }
+
+    /**
+     * Sets the write concern of changeset execution records, instead of the one of the client
+     */
+    public void setExecutionLogWriteConcern(WriteConcern executionLogWriteConcern) {
+        this.executionLogWriteConcern = executionLogWriteConcern;
+    }
+
     public void setMongeezCollectionDB(String dbName) {
         this.dbName = dbName;
     }
@@ -110,6 +428,113 @@ public class Mongeez {
         setChangeSetFileProvider(new FilesetXMLChangeSetFileProvider(file));
     }
 
+    /**
+     * Sets whether to take a lock shared with other nodes using the same mongeez collection before executing changes,
+     * so that only one of them executes them at a time. Nodes waiting for the lock stop waiting once the changelog
+     * fingerprint shows it has been applied, if enabled. Needs MongoDB 4.2 or later; defaults to false.
+     * @see #setChangeLogFingerprintEnabled(boolean)
+     */
+    public void setLockEnabled(boolean lockEnabled) {
+        this.lockEnabled = lockEnabled;
+    }
+
+    /**
+     * Sets whether nodes running the same changesets at the same time share them: each node claims changesets that
+     * no other node has claimed and whose dependencies have been executed, and waits for the ones claimed by others
+     * only when it has nothing else to run. The claims use the {@link #setLockLeaseMillis(long) lock lease}. Needs
+     * MongoDB 4.2 or later; defaults to false, and has no use with the {@link #setLockEnabled(boolean) lock}, which
+     * lets a single node run at a time.
+     */
+    public void setCooperativeExecution(boolean cooperativeExecution) {
+        this.cooperativeExecution = cooperativeExecution;
+    }
+
+    /**
+     * Sets how long the lock, or a changeset claim, is held without being renewed, which the holder does every third of
+     * it; defaults to a minute. A lock whose holder died is taken over after that long.
+     */
+    public void setLockLeaseMillis(long lockLeaseMillis) {
+        this.lockLeaseMillis = lockLeaseMillis;
+    }
+
+    /**
+     * Sets how long to wait for the lock before failing; defaults to 10 minutes
+     */
+    public void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    /**
+     * Sets where to record how long each phase of a run takes, and how many changesets were executed, skipped or
+     * failed; defaults to recording nothing
+     * @see MetricNames
+     */
+    public void setMetricsRecorder(MetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a listener to tell about every changeset executed, skipped or failed, and how long its scripts took
+     */
+    public void addExecutionListener(ExecutionListener listener) {
+        executionListeners.add(listener);
+    }
+
+    public void setExecutionListeners(List<ExecutionListener> executionListeners) {
+        this.executionListeners = new ArrayList<ExecutionListener>(executionListeners);
+    }
+
+    /**
+     * Sets the label of the release being deployed, such as its version, to record with the changesets executed
+     * @see org.mongeez.dao.ExecutionHistoryDao#getTotalDurationByRelease()
+     */
+    public void setReleaseLabel(String releaseLabel) {
+        this.releaseLabel = releaseLabel;
+    }
+
+    /**
+     * Sets the profiler of the database to profile the operations slower than this, in milliseconds, while each
+     * changeset runs, and records their summary with the changeset; the previous profiling level is restored after
+     * each changeset. Defaults to -1, not profiling.
+     * @see org.mongeez.dao.ChangeSetExecutionStats#getProfile()
+     */
+    public void setProfilerSlowMillis(int profilerSlowMillis) {
+        this.profilerSlowMillis = profilerSlowMillis;
+    }
+
+    /**
+     * Sets whether the shell and the mongeez collection set up by the first run are kept for the next runs of this
+     * instance, until {@link #shutdown()} is called; defaults to false, stopping the shell at the end of each run
+     */
+    public void setReuseShellScriptExecutor(boolean reuseShellScriptExecutor) {
+        this.reuseShellScriptExecutor = reuseShellScriptExecutor;
+    }
+
+    /**
+     * Sets how many change files are parsed at the same time; defaults to 1
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
+    /**
+     * Sets whether to remember the fingerprint of the change files and context once they are all applied, and skip
+     * later runs with the same fingerprint after a single read, without starting a shell or parsing the files.
+     * Changelogs with changesets which run always in the context are never skipped. Defaults to false, as execution
+     * records removed by hand are not noticed while the changelog is unchanged.
+     */
+    public void setChangeLogFingerprintEnabled(boolean changeLogFingerprintEnabled) {
+        this.changeLogFingerprintEnabled = changeLogFingerprintEnabled;
+    }
+
+    /**
+     * Sets a directory to keep parsed change files in, so that files which haven't changed since are not parsed again.
+     * Entries which haven't been used for 30 days are deleted.
+     */
+    public void setParseCacheDirectory(File parseCacheDirectory) {
+        this.parseCache = parseCacheDirectory != null ? new ChangeSetParseCache(parseCacheDirectory) : null;
+    }
+
     public void setChangeSetFileProvider(ChangeSetFileProvider changeSetFileProvider) {
         this.changeSetFileProvider = changeSetFileProvider;
     }
@@ -118,4 +543,12 @@ public class Mongeez {
         this.context = context;
     }
 
+    /**
+     * Sets the number of mongo shells to start, so that changesets that are not {@link ChangeSet#isOrdered() ordered}
+     * can run at the same time. Defaults to a single shell.
+     */
+    public void setShellPoolSize(int shellPoolSize) {
+        this.shellPoolSize = shellPoolSize;
+    }
+
 }
@@ -12,15 +12,23 @@
  */
 package org.mongeez;
 
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.Resource;
 
+import org.mongeez.dao.ShellScriptExecutor;
+import org.mongeez.metrics.MetricsRecorder;
+import org.mongeez.metrics.NoopMetricsRecorder;
 import org.mongeez.reader.ChangeSetFileProvider;
 import org.mongeez.validation.ChangeSetsValidator;
 import org.mongeez.validation.DefaultChangeSetsValidator;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author oleksii
  * @since 5/2/11
@@ -30,6 +38,20 @@ public class MongeezRunner implements InitializingBean {
     private MongoClient mongo;
     private String dbName;
     private Resource file;
+    private int shellPoolSize = 1;
+    private ShellScriptExecutor shellScriptExecutor;
+    private int executionLogBatchSize = 1;
+    private WriteConcern executionLogWriteConcern = null;
+    private File parseCacheDirectory;
+    private boolean changeLogFingerprintEnabled = false;
+    private int parserThreads = 1;
+    private boolean lockEnabled = false;
+    private long lockWaitMillis = 600000;
+    private boolean cooperativeExecution = false;
+    private MetricsRecorder metricsRecorder = NoopMetricsRecorder.INSTANCE;
+    private List<ExecutionListener> executionListeners = new ArrayList<ExecutionListener>();
+    private String releaseLabel = null;
+    private int profilerSlowMillis = -1;
     
     private ChangeSetFileProvider changeSetFileProvider;
 
@@ -46,6 +68,20 @@ public class MongeezRunner implements InitializingBean {
         Mongeez mongeez = new Mongeez();
         mongeez.setMongoClient(mongo);
         mongeez.setMongeezCollectionDB(dbName);
+        mongeez.setShellPoolSize(shellPoolSize);
+        mongeez.setShellScriptExecutor(shellScriptExecutor);
+        mongeez.setExecutionLogBatchSize(executionLogBatchSize);
+        mongeez.setExecutionLogWriteConcern(executionLogWriteConcern);
+        mongeez.setParseCacheDirectory(parseCacheDirectory);
+        mongeez.setChangeLogFingerprintEnabled(changeLogFingerprintEnabled);
+        mongeez.setParserThreads(parserThreads);
+        mongeez.setLockEnabled(lockEnabled);
+        mongeez.setLockWaitMillis(lockWaitMillis);
+        mongeez.setCooperativeExecution(cooperativeExecution);
+        mongeez.setMetricsRecorder(metricsRecorder);
+        mongeez.setExecutionListeners(executionListeners);
+        mongeez.setReleaseLabel(releaseLabel);
+        mongeez.setProfilerSlowMillis(profilerSlowMillis);
         
         if(changeSetsValidator != null) {
             mongeez.setChangeSetsValidator(changeSetsValidator);
@@ -87,6 +123,62 @@ public class MongeezRunner implements InitializingBean {
         this.changeSetFileProvider = changeSetFileProvider;
     }
 
+    public void setShellPoolSize(int shellPoolSize) {
+        this.shellPoolSize = shellPoolSize;
+    }
+
+    public void setShellScriptExecutor(ShellScriptExecutor shellScriptExecutor) {
+        this.shellScriptExecutor = shellScriptExecutor;
+    }
+
+    public void setExecutionLogBatchSize(int executionLogBatchSize) {
+        this.executionLogBatchSize = executionLogBatchSize;
+    }
+
+    public void setExecutionLogWriteConcern(WriteConcern executionLogWriteConcern) {
+        this.executionLogWriteConcern = executionLogWriteConcern;
+    }
+
+    public void setParseCacheDirectory(File parseCacheDirectory) {
+        this.parseCacheDirectory = parseCacheDirectory;
+    }
+
+    public void setChangeLogFingerprintEnabled(boolean changeLogFingerprintEnabled) {
+        this.changeLogFingerprintEnabled = changeLogFingerprintEnabled;
+    }
+
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
+    public void setLockEnabled(boolean lockEnabled) {
+        this.lockEnabled = lockEnabled;
+    }
+
+    public void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    public void setCooperativeExecution(boolean cooperativeExecution) {
+        this.cooperativeExecution = cooperativeExecution;
+    }
+
+    public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    public void setExecutionListeners(List<ExecutionListener> executionListeners) {
+        this.executionListeners = executionListeners;
+    }
+
+    public void setReleaseLabel(String releaseLabel) {
+        this.releaseLabel = releaseLabel;
+    }
+
+    public void setProfilerSlowMillis(int profilerSlowMillis) {
+        this.profilerSlowMillis = profilerSlowMillis;
+    }
+
     public String getDbName() {
         return dbName;
     }
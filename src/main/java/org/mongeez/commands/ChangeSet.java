@@ -26,6 +26,9 @@ public class ChangeSet {
 
     private boolean failOnError = true;
     private boolean runAlways;
+    private boolean parallel;
+    private String dependsOn;
+    private String collections;
 
     private List<Script> commands = new ArrayList<Script>();
 
@@ -53,6 +56,57 @@ public class ChangeSet {
         this.runAlways = runAlways;
     }
 
+    /**
+     * Whether this changeset is independent of the changesets around it, and may run at the same time as any of
+     * them that are not {@link #isOrdered() ordered}
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * The comma separated ids of the changesets this changeset needs to run after
+     */
+    public String getDependsOn() {
+        return dependsOn;
+    }
+
+    public void setDependsOn(String dependsOn) {
+        this.dependsOn = dependsOn;
+    }
+
+    public List<String> getDependsOnIds() {
+        return split(dependsOn);
+    }
+
+    /**
+     * The comma separated names of the collections this changeset changes; changesets that declare their
+     * collections only wait for earlier changesets sharing one of them
+     */
+    public String getCollections() {
+        return collections;
+    }
+
+    public void setCollections(String collections) {
+        this.collections = collections;
+    }
+
+    public List<String> getCollectionNames() {
+        return split(collections);
+    }
+
+    /**
+     * Whether this changeset has to run after every changeset before it, and before every changeset after it,
+     * which is the case unless it is marked parallel or declares its dependencies or collections
+     */
+    public boolean isOrdered() {
+        return !parallel && dependsOn == null && collections == null;
+    }
+
     public boolean isFailOnError() {
         return failOnError;
     }
@@ -100,6 +154,18 @@ public class ChangeSet {
         contexts = null;
     }
 
+    private static List<String> split(String values) {
+        List<String> result = new ArrayList<String>();
+        if (values != null) {
+            for (String value : values.split(",")) {
+                if (value.trim().length() > 0) {
+                    result.add(value.trim());
+                }
+            }
+        }
+        return result;
+    }
+
     public boolean canBeAppliedInContext(String context) {
         if (contextsStr == null) {
             return true;
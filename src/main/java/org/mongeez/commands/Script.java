@@ -14,22 +14,65 @@ package org.mongeez.commands;
 
 import org.mongeez.dao.MongeezDao;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
 /**
  * @author oleksii
  * @since 5/3/11
  */
 public class Script {
+    /**
+     * Bodies read lazily above this size, in bytes, are streamed rather than loaded at once
+     */
+    public static final long LARGE_BODY_LENGTH = 16 * 1024 * 1024;
+
     private String body;
+    private ScriptSource source;
 
+    /**
+     * @return the body, loaded from its source on every call if it has one
+     */
     public String getBody() {
+        if (body == null && source != null) {
+            return source.load();
+        }
         return body;
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.source = null;
+    }
+
+    /**
+     * Opens the body as a stream, without loading it at once if it has a source
+     */
+    public Reader openBody() throws IOException {
+        return source != null ? source.open() : new StringReader(body);
+    }
+
+    /**
+     * @return whether the body is read lazily and too large to be loaded at once
+     */
+    public boolean isLarge() {
+        return source != null && source.getLength() > LARGE_BODY_LENGTH;
+    }
+
+    public ScriptSource getSource() {
+        return source;
+    }
+
+    /**
+     * Sets where to load the body from, instead of keeping it
+     */
+    public void setSource(ScriptSource source) {
+        this.source = source;
+        this.body = null;
     }
 
     public void run(MongeezDao dao) {
-        dao.runScript(body);
+        dao.runScript(getBody());
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.commands;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Where a script body is read from when it is needed, so that it isn't held in memory in the meantime
+ */
+public interface ScriptSource {
+    /**
+     * Reads the body again; callers should let go of it once done
+     */
+    String load();
+
+    /**
+     * @return the size of the body in bytes, as stored
+     */
+    long getLength();
+
+    /**
+     * Opens the body as a stream, for scripts too large to be loaded at once
+     */
+    Reader open() throws IOException;
+}
@@ -1,28 +1,82 @@
 package org.mongeez.dao;
 
-import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
-import com.mongodb.MongoServerException;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractMongoShellScriptExecutor implements ShellScriptExecutor {
   private final Logger logger = LoggerFactory.getLogger(MongoShellScriptExecutor.class);
 
+  private static final String SCRIPT_BODY_COMMAND = "(function() { (0, eval)(\"%s\"); return true; })()";
+  private static final String BEGIN_MARKER = "mongeez-script-begin-";
+  private static final String END_MARKER = "mongeez-script-end-";
+  // printed from a concatenation, so that a shell echoing its input never outputs the marker itself
+  private static final String PRINT_MARKER_COMMAND = "print(\"%s\" + \"%d\")";
+  /** Queued by the output reader once the shell has closed its output */
+  private static final String END_OF_OUTPUT = new String("<end of output>");
+  private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
   protected Process mongoProcess;
 
-   AbstractMongoShellScriptExecutor(String mongoClientUri, String mongoCommand, String terminalOutput) {
+  private final BlockingQueue<String> output = new LinkedBlockingQueue<>();
+  private final AtomicLong scriptSequence = new AtomicLong();
+  private volatile long outputTimeoutMillis = TimeUnit.MINUTES.toMillis(30);
+
+  AbstractMongoShellScriptExecutor(String mongoClientUri, String mongoCommand, String terminalOutput) {
+    this(startProcess(mongoClientUri, mongoCommand), mongoCommand, terminalOutput, STARTUP_TIMEOUT_MILLIS);
+  }
+
+  AbstractMongoShellScriptExecutor(Process mongoProcess, String mongoCommand, String terminalOutput,
+                                   long startupTimeoutMillis) {
+    this.mongoProcess = mongoProcess;
+    try {
+      startOutputReader(mongoCommand);
+
+      // wait for shell to connect
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startupTimeoutMillis);
+      List<String> startupOutput = new ArrayList<>();
+      boolean isStarted = false;
+      while (!isStarted) {
+        String line = nextLine(Math.max(deadline - System.nanoTime(), 0));
+        if (line == null) {
+          throw new RuntimeException("Mongo shell did not start within " + startupTimeoutMillis + "ms, it printed:"
+              + toString(startupOutput));
+        }
+        if (line == END_OF_OUTPUT) {
+          throw new RuntimeException("Mongo shell startup failed, see above for any errors");
+        }
+        logger.info("Mongo shell: {}", line);
+        startupOutput.add(line);
+        isStarted = line.startsWith(terminalOutput);
+      }
+
+    } catch (RuntimeException e) {
+      mongoProcess.destroy();
+      throw e;
+    } catch (Exception e) {
+      mongoProcess.destroy();
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      throw new RuntimeException("Exception in initialising mongo shell client", e);
+    }
+  }
+
+  private static Process startProcess(String mongoClientUri, String mongoCommand) {
     ProcessBuilder pb = new ProcessBuilder();
     pb.redirectErrorStream(true);
 
@@ -32,83 +86,153 @@ public abstract class AbstractMongoShellScriptExecutor implements ShellScriptExe
 
     pb.command(commandArgs);
     try {
-      this.mongoProcess = pb.start();
-      InputStream is = mongoProcess.getInputStream();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-
-      boolean exited = false;
-      // wait for shell to connect 
-      while (is.available() <= 0 && !exited) {
-        exited = mongoProcess.waitFor(10, TimeUnit.MILLISECONDS);
+      return pb.start();
+    } catch (IOException e) {
+      throw new RuntimeException("Exception in initialising mongo shell client", e);
+    }
+  }
 
-      }
+  /**
+   * Sets how long to wait for the next line of output of a script before failing it and stopping the shell, which
+   * may still be running it. Defaults to 30 minutes; 0 waits forever.
+   */
+  public void setOutputTimeoutMillis(long outputTimeoutMillis) {
+    this.outputTimeoutMillis = outputTimeoutMillis;
+  }
 
-      boolean isStarted = false;
-      while (!isStarted && mongoProcess.isAlive()) {
-        while (is.available() > 0) {
-          String line = reader.readLine();
-          if (line.startsWith(terminalOutput)) {
-            isStarted = true;
+  /**
+   * Reads the shell output on a dedicated thread, so that scripts can block on their result instead of polling the
+   * process for available output
+   */
+  private void startOutputReader(String mongoCommand) {
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(mongoProcess.getInputStream()))) {
+          String line;
+          while ((line = in.readLine()) != null) {
+            output.add(line);
           }
-          logger.info("Mongo shell: {}", line);
+        } catch (IOException e) {
+          logger.debug("Stopped reading mongo shell output", e);
+        } finally {
+          output.add(END_OF_OUTPUT);
         }
       }
+    }, mongoCommand + "-output-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
 
-      if (exited || !mongoProcess.isAlive()) {
-        throw new RuntimeException("Mongo shell startup failed, see above for any errors");
-      }
-
-    } catch (RuntimeException e) {
-      throw e;
-    } catch (Exception e) {
-      throw new RuntimeException("Exception in initialising mongo shell client", e);
+  public void runScript(String filePath) {
+    if(SystemUtils.IS_OS_WINDOWS) {
+      filePath = filePath.replaceAll("\\\\", "/");
     }
+    runCommand(String.format("load(\"%s\")", filePath), "file:" + filePath);
   }
 
-  public void runScript(String filePath) {
+  /**
+   * Sends the script body down the shell's stdin as a single line, so the end of the script is the end of the line.
+   * The body is escaped into a string literal and evaluated in the global scope, the same way {@code load()} would
+   * evaluate it, and the command prints {@code true} once the whole script has run.
+   */
+  @Override
+  public void runScriptBody(String body) {
+    runCommand(getScriptBodyCommand(body), "script body");
+  }
 
-    boolean isSuccess = false;
+  static String getScriptBodyCommand(String body) {
+    return String.format(SCRIPT_BODY_COMMAND, StringEscapeUtils.escapeEcmaScript(body));
+  }
 
+  /**
+   * Runs the command between a pair of markers unique to this invocation, and blocks until the end marker has been
+   * printed. The command succeeded if the last line it printed is {@code true}.
+   */
+  private synchronized void runCommand(String command, String description) {
+    long sequence = scriptSequence.incrementAndGet();
+    sendCommand(mongoProcess, String.format(PRINT_MARKER_COMMAND, BEGIN_MARKER, sequence) + "\n"
+        + command + "\n"
+        + String.format(PRINT_MARKER_COMMAND, END_MARKER, sequence));
+
+    String beginMarker = BEGIN_MARKER + sequence;
+    String endMarker = END_MARKER + sequence;
+    List<String> result = new ArrayList<>();
+    boolean inResult = false;
+    long timeoutNanos = outputTimeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(outputTimeoutMillis) : -1;
     try {
-      if(SystemUtils.IS_OS_WINDOWS) {
-        filePath = filePath.replaceAll("\\\\", "/");
-      }
-      sendCommand(mongoProcess, String.format("load(\"%s\")", filePath));
-
-      boolean outputFetched = false;
-      do {
-        mongoProcess.waitFor(50, TimeUnit.MILLISECONDS);
-        InputStream is = mongoProcess.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        if (is.available() > 0) {
-          String line = reader.readLine();
-          if (!line.equals("true")) {
-            logger.error(line);
-            mongoProcess.waitFor(100, TimeUnit.MILLISECONDS);
-            while (is.available() > 0) {
-              line = reader.readLine();
-              logger.error(line);
-            }
-          } else {
-            isSuccess = true;
-          }
-          outputFetched = true;
+      String line = nextLine(timeoutNanos);
+      while (line == null || !line.contains(endMarker)) {
+        if (line == null) {
+          // the shell may still be running the script, and would answer the next one with its output
+          mongoProcess.destroy();
+          throw new MongoException("Mongo shell printed nothing for " + outputTimeoutMillis + "ms while running script for "
+              + description + ", it printed:" + toString(result));
+        }
+        if (line == END_OF_OUTPUT) {
+          throw new MongoException("Mongo shell exited while running script for " + description);
         }
-      } while (!outputFetched);
-    } catch (InterruptedException | IOException e) {
+        if (inResult) {
+          result.add(line);
+        } else if (line.contains(beginMarker)) {
+          inResult = true;
+        } else {
+          logger.info("Mongo shell: {}", line);
+        }
+        line = nextLine(timeoutNanos);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new RuntimeException("Exception in executing script", e);
     }
 
+    boolean isSuccess = !result.isEmpty() && result.get(result.size() - 1).trim().equals("true");
+    for (String line : result) {
+      if (isSuccess) {
+        logger.debug(line);
+      } else {
+        logger.error(line);
+      }
+    }
+
     if (!isSuccess) {
-      throw new MongoException("Error in running script for file:" + filePath);
+      throw new MongoException("Error in running script for " + description);
     }
   }
 
+  /**
+   * @param timeoutNanos how long to wait for the line, or a negative value to wait forever
+   * @return the next line, or null if the shell printed none in time
+   */
+  private String nextLine(long timeoutNanos) throws InterruptedException {
+    String line = timeoutNanos < 0 ? output.take() : output.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    if (line == END_OF_OUTPUT) {
+      // leave it for anyone else waiting on the shell
+      output.add(END_OF_OUTPUT);
+    }
+    return line;
+  }
+
+  private static String toString(List<String> lines) {
+    StringBuilder text = new StringBuilder();
+    for (String line : lines) {
+      text.append('\n').append(line);
+    }
+    return text.toString();
+  }
+
+  @Override
+  public void shutdown() throws InterruptedException {
+    sendCommand(mongoProcess, "exit");
+    mongoProcess.waitFor();
+  }
+
   protected void sendCommand(Process process, String command) {
     OutputStream os = process.getOutputStream();
     // BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os));
     PrintWriter writer = new PrintWriter(os);
-    logger.debug("Sending command " + command);
+    // commands carry whole script bodies, which are too large and sensitive to log
+    logger.debug("Sending command of {} characters", command.length());
     try {
       writer.write(command + "\n");
       writer.flush();
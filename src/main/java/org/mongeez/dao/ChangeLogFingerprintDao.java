@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+/**
+ * Reads and writes the fingerprint of the last changelog fully applied, kept in the configuration record. Unlike
+ * {@link MongeezDao}, it doesn't need the mongeez collection to be configured first.
+ */
+public class ChangeLogFingerprintDao {
+    private static final String FINGERPRINT_FIELD = "changeLogFingerprint";
+
+    private final MongoCollection<Document> collection;
+
+    public ChangeLogFingerprintDao(MongoClient client, String dbName) {
+        collection = client.getDatabase(dbName).getCollection("mongeez");
+    }
+
+    /**
+     * @return whether the changelog with this fingerprint is the last one fully applied, in a single indexed read
+     */
+    public boolean isApplied(String fingerprint) {
+        return collection.find(Filters.and(
+                Filters.eq("type", RecordType.configuration.name()),
+                Filters.eq(FINGERPRINT_FIELD, fingerprint)))
+                .projection(Projections.include("_id"))
+                .first() != null;
+    }
+
+    public void saveApplied(String fingerprint) {
+        collection.updateOne(Filters.eq("type", RecordType.configuration.name()), Updates.set(FINGERPRINT_FIELD, fingerprint));
+    }
+
+    public void clearApplied() {
+        collection.updateOne(Filters.eq("type", RecordType.configuration.name()), Updates.unset(FINGERPRINT_FIELD));
+    }
+}
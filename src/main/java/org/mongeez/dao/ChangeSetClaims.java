@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.mongeez.commands.ChangeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Claims on changesets, shared by every node using the same mongeez collection, so that nodes starting together
+ * execute different changesets instead of waiting for each other. A claim is a record with a lease, which the node
+ * holding it renews in the background until it releases it; the claim of a node which died expires and can be taken
+ * over. Leases are computed with the server clock, which needs MongoDB 4.2 or later.
+ * <p>
+ * A claim only says who is executing a changeset; whether it has been executed is told by its execution record,
+ * which has to be written before the claim is released.
+ */
+public class ChangeSetClaims {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeSetClaims.class);
+
+    private final MongoCollection<Document> collection;
+    private final MongeezDao dao;
+    private final long leaseMillis;
+    private final String owner;
+    private final Set<String> claimed = new HashSet<String>();
+    private final LeaseHeartbeat heartbeat;
+
+    public ChangeSetClaims(MongoClient client, String dbName, MongeezDao dao, long leaseMillis) {
+        this.collection = client.getDatabase(dbName).getCollection("mongeez");
+        this.dao = dao;
+        this.leaseMillis = leaseMillis;
+        this.owner = LeaseHeartbeat.newOwner();
+        this.heartbeat = new LeaseHeartbeat("mongeez-claim-heartbeat", leaseMillis, new Runnable() {
+            @Override
+            public void run() {
+                renew();
+            }
+        });
+    }
+
+    /**
+     * Claims the changeset if nobody has claimed it, or its claim has expired, with a single findOneAndUpdate which
+     * leaves a running claim of another node untouched
+     * @return whether this node now holds the claim
+     */
+    public synchronized boolean tryClaim(ChangeSet changeSet) {
+        String id = getClaimId(changeSet);
+        Document claimable = new Document("$or", Arrays.asList(
+                new Document("$eq", Arrays.asList("$owner", owner)),
+                new Document("$lt", Arrays.asList("$expiresAt", "$$NOW"))));
+        Document claim = new Document("type", RecordType.claim.name())
+                .append("changeId", changeSet.getChangeId())
+                .append("owner", new Document("$cond", Arrays.asList(claimable, owner, "$owner")))
+                .append("expiresAt", new Document("$cond", Arrays.asList(claimable, lease(), "$expiresAt")));
+        List<Bson> update = Collections.<Bson>singletonList(new Document("$set", claim));
+        try {
+            claim = collection.findOneAndUpdate(Filters.eq("_id", id), update,
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        } catch (MongoCommandException e) {
+            // another node created the claim at the same time
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+        if (claim == null || !owner.equals(claim.getString("owner"))) {
+            logger.debug("ChangeSet {} is claimed by {}", changeSet.getChangeId(),
+                    claim != null ? claim.get("owner") : null);
+            return false;
+        }
+        claimed.add(id);
+        heartbeat.start();
+        return true;
+    }
+
+    /**
+     * Releases the claim on the changeset, once its execution record has been written
+     */
+    public synchronized void release(ChangeSet changeSet) {
+        String id = getClaimId(changeSet);
+        if (!claimed.remove(id)) {
+            return;
+        }
+        if (claimed.isEmpty()) {
+            heartbeat.stop();
+        }
+        try {
+            collection.deleteOne(Filters.and(Filters.eq("_id", id), Filters.eq("owner", owner)));
+        } catch (RuntimeException e) {
+            logger.warn("Unable to release the claim on changeset " + changeSet.getChangeId()
+                    + ", it will be free once its lease expires", e);
+        }
+    }
+
+    private String getClaimId(ChangeSet changeSet) {
+        return RecordType.claim.name() + ":" + dao.getExecutionKey(changeSet);
+    }
+
+    private Document lease() {
+        return LeaseHeartbeat.expiresAt(leaseMillis);
+    }
+
+    private synchronized void renew() {
+        if (claimed.isEmpty()) {
+            return;
+        }
+        try {
+            UpdateResult result = collection.updateMany(
+                    Filters.and(Filters.in("_id", claimed), Filters.eq("owner", owner)),
+                    Collections.<Bson>singletonList(new Document("$set", new Document("expiresAt", lease()))));
+            if (result.getMatchedCount() < claimed.size()) {
+                logger.error("Lost changeset claims, their lease expired before it could be renewed");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to renew changeset claim leases", e);
+        }
+    }
+}
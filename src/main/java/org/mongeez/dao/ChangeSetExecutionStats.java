@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import org.bson.Document;
+
+import java.util.Date;
+
+/**
+ * How an execution of a changeset went, as kept in its execution record. The changeset key and release are only set
+ * on stats read back by {@link ExecutionHistoryDao}.
+ */
+public class ChangeSetExecutionStats {
+    static final String STARTED_AT = "startedAt";
+    static final String ENDED_AT = "endedAt";
+    static final String DURATION_MILLIS = "durationMillis";
+    static final String EXECUTOR_TYPE = "executorType";
+    static final String SCRIPT_BYTES = "scriptBytes";
+    static final String HOST = "host";
+    static final String DOCS_AFFECTED = "docsAffected";
+    static final String RELEASE = "release";
+    static final String PROFILE = "profile";
+
+    private String file;
+    private String changeId;
+    private String author;
+    private Date startedAt;
+    private Date endedAt;
+    private long durationMillis;
+    private String executorType;
+    private long scriptBytes;
+    private String host;
+    private long docsAffected = -1;
+    private String release;
+    private Document profile;
+
+    public ChangeSetExecutionStats() {
+    }
+
+    public ChangeSetExecutionStats(Date startedAt, Date endedAt, long durationMillis, String executorType,
+                                   long scriptBytes, long docsAffected) {
+        this.startedAt = startedAt;
+        this.endedAt = endedAt;
+        this.durationMillis = durationMillis;
+        this.executorType = executorType;
+        this.scriptBytes = scriptBytes;
+        this.docsAffected = docsAffected;
+    }
+
+    void appendTo(Document record) {
+        record.append(STARTED_AT, startedAt)
+                .append(ENDED_AT, endedAt)
+                .append(DURATION_MILLIS, durationMillis)
+                .append(EXECUTOR_TYPE, executorType)
+                .append(SCRIPT_BYTES, scriptBytes);
+        if (docsAffected >= 0) {
+            record.append(DOCS_AFFECTED, docsAffected);
+        }
+        if (profile != null) {
+            record.append(PROFILE, profile);
+        }
+    }
+
+    static ChangeSetExecutionStats fromRecord(Document record) {
+        ChangeSetExecutionStats stats = new ChangeSetExecutionStats();
+        stats.file = record.getString(ChangeSetAttribute.file.name());
+        stats.changeId = record.getString(ChangeSetAttribute.changeId.name());
+        stats.author = record.getString(ChangeSetAttribute.author.name());
+        stats.startedAt = record.getDate(STARTED_AT);
+        stats.endedAt = record.getDate(ENDED_AT);
+        stats.durationMillis = getLong(record, DURATION_MILLIS, 0);
+        stats.executorType = record.getString(EXECUTOR_TYPE);
+        stats.scriptBytes = getLong(record, SCRIPT_BYTES, 0);
+        stats.host = record.getString(HOST);
+        stats.docsAffected = getLong(record, DOCS_AFFECTED, -1);
+        stats.release = record.getString(RELEASE);
+        stats.profile = record.get(PROFILE, Document.class);
+        return stats;
+    }
+
+    private static long getLong(Document record, String field, long missing) {
+        Object value = record.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : missing;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getChangeId() {
+        return changeId;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    public Date getEndedAt() {
+        return endedAt;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getExecutorType() {
+        return executorType;
+    }
+
+    public long getScriptBytes() {
+        return scriptBytes;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the documents inserted, updated or deleted by the scripts, or -1 if the executor doesn't tell
+     */
+    public long getDocsAffected() {
+        return docsAffected;
+    }
+
+    public String getRelease() {
+        return release;
+    }
+
+    /**
+     * @return the summary of the slow operations profiled while the changeset ran, or null if it wasn't profiled
+     * @see ProfilerCapture
+     */
+    public Document getProfile() {
+        return profile;
+    }
+
+    public void setProfile(Document profile) {
+        this.profile = profile;
+    }
+}
@@ -0,0 +1,248 @@
+package org.mongeez.dao;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This executes javascript changesets in the JVM's <a href="https://openjdk.org/projects/nashorn/">Nashorn</a>
+ * engine, against a {@code db} object backed by the java driver, so neither a shell client nor a separate process is
+ * needed. Nashorn ships with java 8 to 14, and is available for later versions as
+ * {@code org.openjdk.nashorn:nashorn-core}.
+ * <p>
+ * Only the common collection methods of the mongo shell are available (insert, update, remove, find, count,
+ * createIndex, drop and their *One/*Many variants), plus {@code db.runCommand}, {@code ISODate}, {@code ObjectId},
+ * {@code NumberLong} and {@code NumberInt}. Documents read back from the database are in extended JSON form, and
+ * {@code find} returns a cursor reading them one at a time.
+ * <p>
+ * Scripts are evaluated as they come, without being kept, as most of them run once. Nashorn can keep the code it
+ * compiles across restarts with {@code -Dnashorn.args=--persistent-code-cache}.
+ */
+public class EmbeddedJavascriptScriptExecutor implements ShellScriptExecutor {
+  private static final String SHELL_RESOURCE = "embedded-shell.js";
+  private static final String DATABASE_VARIABLE = "__mongeezDatabase";
+
+  private final ScriptEngine engine;
+
+  public EmbeddedJavascriptScriptExecutor(MongoClient client, String dbName) {
+    engine = new ScriptEngineManager().getEngineByName("nashorn");
+    if (engine == null) {
+      throw new RuntimeException("No Nashorn javascript engine found, add org.openjdk.nashorn:nashorn-core to the classpath");
+    }
+    engine.put(DATABASE_VARIABLE, new DatabaseShim(client.getDatabase(dbName)));
+    try (Reader shell = new InputStreamReader(getClass().getResourceAsStream(SHELL_RESOURCE), StandardCharsets.UTF_8)) {
+      engine.eval(shell);
+    } catch (IOException | ScriptException e) {
+      throw new RuntimeException("Exception in initialising embedded javascript shell", e);
+    }
+  }
+
+  @Override
+  public void runScript(String filePath) {
+    try {
+      runScriptBody(new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to read script file " + filePath, e);
+    }
+  }
+
+  @Override
+  public boolean canRunScriptBody() {
+    return true;
+  }
+
+  /**
+   * Runs the script in the engine's global scope, the same way {@code load()} runs it in the mongo shell
+   */
+  @Override
+  public synchronized void runScriptBody(String body) {
+    try {
+      engine.eval(body);
+    } catch (ScriptException e) {
+      throw new MongoException("Error in running script: " + e.getMessage(), e);
+    }
+  }
+
+  private static List<Document> parseDocuments(String json) {
+    List<Document> documents = new ArrayList<>();
+    if (json.trim().startsWith("[")) {
+      documents.addAll(Document.parse("{\"documents\": " + json + "}").getList("documents", Document.class));
+    } else {
+      documents.add(Document.parse(json));
+    }
+    return documents;
+  }
+
+  private static Document parseDocument(String json) {
+    return json == null ? new Document() : Document.parse(json);
+  }
+
+  /**
+   * The {@code db} object seen by scripts; documents are passed in and out as extended JSON
+   */
+  public static class DatabaseShim {
+    private final MongoDatabase db;
+
+    DatabaseShim(MongoDatabase db) {
+      this.db = db;
+    }
+
+    public String getName() {
+      return db.getName();
+    }
+
+    public CollectionShim getCollection(String name) {
+      return new CollectionShim(db, db.getCollection(name));
+    }
+
+    public String runCommand(String command) {
+      return db.runCommand(parseDocument(command)).toJson();
+    }
+
+    public void dropDatabase() {
+      db.drop();
+    }
+
+    public String newObjectId() {
+      return new ObjectId().toHexString();
+    }
+  }
+
+  public static class CollectionShim {
+    private final MongoDatabase db;
+    private final MongoCollection<Document> collection;
+
+    CollectionShim(MongoDatabase db, MongoCollection<Document> collection) {
+      this.db = db;
+      this.collection = collection;
+    }
+
+    public long insert(String documents) {
+      List<Document> parsed = parseDocuments(documents);
+      collection.insertMany(parsed);
+      return parsed.size();
+    }
+
+    public long save(String document) {
+      Document parsed = parseDocument(document);
+      if (parsed.get("_id") == null) {
+        collection.insertOne(parsed);
+        return 1;
+      }
+      UpdateResult result =
+          collection.replaceOne(new Document("_id", parsed.get("_id")), parsed, new ReplaceOptions().upsert(true));
+      return result.getModifiedCount() + (result.getUpsertedId() != null ? 1 : 0);
+    }
+
+    public long update(String query, String update, boolean upsert, boolean multi) {
+      Document filter = parseDocument(query);
+      UpdateOptions options = new UpdateOptions().upsert(upsert);
+      if (update.trim().startsWith("[")) {
+        List<Bson> pipeline = new ArrayList<Bson>(parseDocuments(update));
+        return multi
+            ? collection.updateMany(filter, pipeline, options).getModifiedCount()
+            : collection.updateOne(filter, pipeline, options).getModifiedCount();
+      }
+      Document parsed = parseDocument(update);
+      if (!parsed.isEmpty() && !parsed.keySet().iterator().next().startsWith("$")) {
+        return collection.replaceOne(filter, parsed, new ReplaceOptions().upsert(upsert)).getModifiedCount();
+      }
+      return multi
+          ? collection.updateMany(filter, parsed, options).getModifiedCount()
+          : collection.updateOne(filter, parsed, options).getModifiedCount();
+    }
+
+    public long remove(String query, boolean justOne) {
+      Document filter = parseDocument(query);
+      return justOne
+          ? collection.deleteOne(filter).getDeletedCount()
+          : collection.deleteMany(filter).getDeletedCount();
+    }
+
+    /**
+     * @param limit the documents to read at most, or 0 for all of them
+     */
+    public CursorShim find(String query, String projection, String sort, int skip, int limit) {
+      FindIterable<Document> found = collection.find(parseDocument(query)).projection(parseDocument(projection))
+          .sort(parseDocument(sort)).skip(skip).limit(limit);
+      return new CursorShim(found.iterator());
+    }
+
+    public long count(String query) {
+      return collection.countDocuments(parseDocument(query));
+    }
+
+    /**
+     * Creates the index through the createIndexes command, so that any index option is passed through as is
+     */
+    public String createIndex(String keys, String options) {
+      Document key = parseDocument(keys);
+      Document index = parseDocument(options);
+      if (!index.containsKey("name")) {
+        StringBuilder name = new StringBuilder();
+        for (Map.Entry<String, Object> field : key.entrySet()) {
+          if (name.length() > 0) {
+            name.append('_');
+          }
+          name.append(field.getKey()).append('_').append(field.getValue());
+        }
+        index.put("name", name.toString());
+      }
+      index.put("key", key);
+      List<Document> indexes = new ArrayList<>();
+      indexes.add(index);
+      db.runCommand(new Document("createIndexes", collection.getNamespace().getCollectionName())
+          .append("indexes", indexes));
+      return index.getString("name");
+    }
+
+    public void drop() {
+      collection.drop();
+    }
+  }
+
+  /**
+   * Hands the documents found over one at a time, as extended JSON
+   */
+  public static class CursorShim {
+    private final MongoCursor<Document> cursor;
+
+    CursorShim(MongoCursor<Document> cursor) {
+      this.cursor = cursor;
+    }
+
+    public boolean hasNext() {
+      return cursor.hasNext();
+    }
+
+    public String next() {
+      return cursor.next().toJson();
+    }
+
+    public void close() {
+      cursor.close();
+    }
+  }
+}
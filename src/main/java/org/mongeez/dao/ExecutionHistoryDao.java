@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries the execution records which hold {@link ChangeSetExecutionStats}, with the indexes set up by
+ * {@link MongeezDao}. Records written before stats were kept are left out.
+ */
+public class ExecutionHistoryDao {
+    private final MongoCollection<Document> collection;
+
+    public ExecutionHistoryDao(MongoClient client, String dbName) {
+        collection = client.getDatabase(dbName).getCollection("mongeez");
+    }
+
+    /**
+     * @return the longest changeset executions, longest first
+     */
+    public List<ChangeSetExecutionStats> findSlowestChangeSets(int limit) {
+        return toStats(collection.find(withStats())
+                .sort(Sorts.descending(ChangeSetExecutionStats.DURATION_MILLIS))
+                .limit(limit));
+    }
+
+    /**
+     * @return the total execution time of the changesets of each release, in milliseconds, by release; executions
+     * without a release label are added up under null
+     */
+    public Map<String, Long> getTotalDurationByRelease() {
+        Map<String, Long> totals = new LinkedHashMap<String, Long>();
+        for (Document total : collection.aggregate(Arrays.asList(
+                Aggregates.match(withStats()),
+                Aggregates.group("$" + ChangeSetExecutionStats.RELEASE,
+                        Accumulators.sum("total", "$" + ChangeSetExecutionStats.DURATION_MILLIS)),
+                Aggregates.sort(Sorts.ascending("_id"))))) {
+            totals.put(total.getString("_id"), ((Number) total.get("total")).longValue());
+        }
+        return totals;
+    }
+
+    /**
+     * @return every execution of the changeset, oldest first, as for following how the changesets which run always
+     * evolve
+     */
+    public List<ChangeSetExecutionStats> findExecutions(String file, String changeId) {
+        return toStats(collection.find(Filters.and(withStats(),
+                        Filters.eq(ChangeSetAttribute.changeId.name(), changeId),
+                        Filters.eq(ChangeSetAttribute.file.name(), file)))
+                .sort(Sorts.ascending(ChangeSetExecutionStats.STARTED_AT)));
+    }
+
+    private static Bson withStats() {
+        return Filters.and(Filters.eq("type", RecordType.changeSetExecution.name()),
+                Filters.exists(ChangeSetExecutionStats.DURATION_MILLIS));
+    }
+
+    private static List<ChangeSetExecutionStats> toStats(Iterable<Document> records) {
+        List<ChangeSetExecutionStats> stats = new ArrayList<ChangeSetExecutionStats>();
+        for (Document record : records) {
+            stats.add(ChangeSetExecutionStats.fromRecord(record));
+        }
+        return stats;
+    }
+}
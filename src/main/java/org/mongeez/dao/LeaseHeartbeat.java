@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import org.bson.Document;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renews the lease of records held by this node in the background, three times per lease, from when the first is
+ * taken until the last is released
+ */
+class LeaseHeartbeat {
+    private final String threadName;
+    private final long leaseMillis;
+    private final Runnable renew;
+    private ScheduledExecutorService executor = null;
+
+    LeaseHeartbeat(String threadName, long leaseMillis, Runnable renew) {
+        this.threadName = threadName;
+        this.leaseMillis = leaseMillis;
+        this.renew = renew;
+    }
+
+    /**
+     * @return an owner name unique to this holder, telling which process holds the record
+     */
+    static String newOwner() {
+        return ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID();
+    }
+
+    /**
+     * @return the expression of the expiry of a lease taken now, computed with the server clock
+     */
+    static Document expiresAt(long leaseMillis) {
+        return new Document("$add", Arrays.asList("$$NOW", leaseMillis));
+    }
+
+    synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(leaseMillis / 3, 1);
+        executor.scheduleAtFixedRate(renew, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -13,8 +13,20 @@
 
 package org.mongeez.dao;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
@@ -29,9 +41,24 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.client.MongoClient;
 
 public class MongeezDao {
+    /**
+     * The version of the mongeez collection layout set up by {@link #configure()}; bump it when changing the upgrade
+     * steps, so that they run again on existing databases
+     */
+    private static final int SCHEMA_VERSION = 2;
+
     private final MongoDatabase db;
     private List<ChangeSetAttribute> changeSetAttributes;
     private final ShellScriptExecutor executor;
+    private final Set<String> executedChangeSets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private int executionLogBatchSize = 1;
+    private WriteConcern executionLogWriteConcern = null;
+    private final List<Document> pendingExecutionRecords = new ArrayList<Document>();
+    private final List<Future<?>> pendingExecutionWrites = new ArrayList<Future<?>>();
+    private ExecutorService executionLogWriter = null;
+    private String releaseLabel = null;
+    private final String host = getHostName();
 
     public MongeezDao(MongoClient client, String dbName, ShellScriptExecutor shellScriptExecutor) {
         db = client.getDatabase(dbName);
@@ -39,11 +66,35 @@ public class MongeezDao {
         configure();
     }
 
+    /**
+     * Upgrades the mongeez collection unless the configuration record shows it has already been upgraded to the
+     * current {@link #SCHEMA_VERSION}, in which case reading that record is all that's needed.
+     */
     private void configure() {
-        addTypeToUntypedRecords();
-        loadConfigurationRecord();
-        dropObsoleteChangeSetExecutionIndices();
-        ensureChangeSetExecutionIndex();
+        Document configRecord = findConfigurationRecord();
+        if (configRecord != null && configRecord.get("schemaVersion") instanceof Number
+                && ((Number) configRecord.get("schemaVersion")).intValue() >= SCHEMA_VERSION) {
+            loadChangeSetAttributes(configRecord);
+        } else {
+            addTypeToUntypedRecords();
+            configRecord = loadConfigurationRecord();
+            loadChangeSetAttributes(configRecord);
+            dropObsoleteChangeSetExecutionIndices();
+            ensureChangeSetExecutionIndex();
+            ensureExecutionStatsIndexes();
+            saveSchemaVersion();
+        }
+        loadExecutedChangeSets();
+    }
+
+    private Document findConfigurationRecord() {
+        Bson q = Filters.eq("type",RecordType.configuration.name());
+        return getMongeezCollection().find(q).first();
+    }
+
+    private void saveSchemaVersion() {
+        Bson q = Filters.eq("type",RecordType.configuration.name());
+        getMongeezCollection().updateOne(q, Updates.set("schemaVersion", SCHEMA_VERSION));
     }
 
     private void addTypeToUntypedRecords() {
@@ -52,11 +103,12 @@ public class MongeezDao {
         getMongeezCollection().updateMany(q, o);
     }
 
-    private void loadConfigurationRecord() {
-        Bson q = Filters.eq("type",RecordType.configuration.name());
-        Document configRecord = getMongeezCollection().find(q).first();
+    private Document loadConfigurationRecord() {
+        Document configRecord = findConfigurationRecord();
         if (configRecord == null) {
-            if (getMongeezCollection().countDocuments() > 0L) {
+            // lock and claim records may be written before the collection is first configured
+            Bson executions = Filters.eq("type", RecordType.changeSetExecution.name());
+            if (getMongeezCollection().countDocuments(executions) > 0L) {
                 // We have pre-existing records, so don't assume that they support the latest features
                 configRecord =
                         new Document()
@@ -70,6 +122,10 @@ public class MongeezDao {
             }
             getMongeezCollection().insertOne(configRecord);
         }
+        return configRecord;
+    }
+
+    private void loadChangeSetAttributes(Document configRecord) {
         Object supportResourcePath = configRecord.get("supportResourcePath");
 
         changeSetAttributes = new ArrayList<ChangeSetAttribute>();
@@ -95,21 +151,96 @@ public class MongeezDao {
     }
 
     private void ensureChangeSetExecutionIndex() {
+        getMongeezCollection().createIndex(getChangeSetExecutionIndexKeys());
+    }
+
+    /**
+     * Indexes for the queries of {@link ExecutionHistoryDao}
+     */
+    private void ensureExecutionStatsIndexes() {
+        MongoCollection<Document> collection = getMongeezCollection();
+        collection.createIndex(new Document("type", 1).append(ChangeSetExecutionStats.DURATION_MILLIS, -1));
+        collection.createIndex(new Document("type", 1).append(ChangeSetExecutionStats.RELEASE, 1)
+                .append(ChangeSetExecutionStats.DURATION_MILLIS, 1));
+        collection.createIndex(new Document("type", 1).append(ChangeSetAttribute.changeId.name(), 1)
+                .append(ChangeSetAttribute.file.name(), 1).append(ChangeSetExecutionStats.STARTED_AT, 1));
+    }
+
+    private BasicDBObject getChangeSetExecutionIndexKeys() {
         BasicDBObject keys = new BasicDBObject();
         keys.append("type", 1);
         for (ChangeSetAttribute attribute : changeSetAttributes) {
             keys.append(attribute.name(), 1);
         }
-        getMongeezCollection().createIndex(keys);
+        return keys;
+    }
+
+    /**
+     * Reads again the keys of the executed changesets, to see the changesets executed by others since this dao was
+     * created
+     */
+    public void refreshExecutedChangeSets() {
+        loadExecutedChangeSets();
+    }
+
+    /**
+     * Reads the keys of all the changeset executions at once, with a query the changeset execution index covers, so
+     * that {@link #wasExecuted(ChangeSet)} doesn't need a query per changeset. The index isn't hinted, as it is only
+     * created by upgrades and may have been dropped since.
+     */
+    private void loadExecutedChangeSets() {
+        Bson query = Filters.eq("type", RecordType.changeSetExecution.name());
+        Document projection = new Document("_id", 0);
+        for (ChangeSetAttribute attribute : changeSetAttributes) {
+            projection.append(attribute.name(), 1);
+        }
+        executedChangeSets.clear();
+        for (Document record : getMongeezCollection().find(query).projection(projection)) {
+            List<Object> values = new ArrayList<Object>();
+            for (ChangeSetAttribute attribute : changeSetAttributes) {
+                values.add(record.get(attribute.name()));
+            }
+            executedChangeSets.add(getExecutionKey(values));
+        }
+    }
+
+    String getExecutionKey(ChangeSet changeSet) {
+        List<Object> values = new ArrayList<Object>();
+        for (ChangeSetAttribute attribute : changeSetAttributes) {
+            values.add(attribute.getAttributeValue(changeSet));
+        }
+        return getExecutionKey(values);
+    }
+
+    /**
+     * The values as JSON, keeping their types apart as a query on them would: a stored number doesn't match the string
+     * of its digits. A missing attribute is read as null, which matches it as it would in a query.
+     */
+    static String getExecutionKey(List<Object> values) {
+        return new Document("key", values).toJson();
     }
 
     public boolean wasExecuted(ChangeSet changeSet) {
-        BasicDBObject query = new BasicDBObject();
-        query.append("type", RecordType.changeSetExecution.name());
+        return executedChangeSets.contains(getExecutionKey(changeSet));
+    }
+
+    /**
+     * Looks for the execution record of the changeset, to see if another node has executed it since the executed
+     * changesets were read
+     */
+    public boolean checkExecuted(ChangeSet changeSet) {
+        if (wasExecuted(changeSet)) {
+            return true;
+        }
+        Document query = new Document("type", RecordType.changeSetExecution.name());
         for (ChangeSetAttribute attribute : changeSetAttributes) {
             query.append(attribute.name(), attribute.getAttributeValue(changeSet));
         }
-        return getMongeezCollection().countDocuments(query) > 0;
+        if (getMongeezCollection().find(query).projection(new Document("_id", 1)).first() == null) {
+            return false;
+        }
+        executedChangeSets.add(getExecutionKey(changeSet));
+        return true;
     }
 
     private MongoCollection<Document> getMongeezCollection() {
@@ -120,13 +251,151 @@ public class MongeezDao {
         executor.runScript(filePath);
     }
 
+    public boolean canRunScriptBody() {
+        return executor.canRunScriptBody();
+    }
+
+    public void runScriptBody(String body) {
+        executor.runScriptBody(body);
+    }
+
+    public int getMaxConcurrency() {
+        return executor.getMaxConcurrency();
+    }
+
+    public String getExecutorName() {
+        return executor.getName();
+    }
+
+    public long getDocumentsAffected() {
+        return executor.getDocumentsAffected();
+    }
+
     public void logChangeSet(ChangeSet changeSet) {
+        logChangeSet(changeSet, null);
+    }
+
+    /**
+     * Records the execution of the changeset, along with how it went if known, the host and the release label
+     */
+    public void logChangeSet(ChangeSet changeSet, ChangeSetExecutionStats stats) {
         Document object = new Document();
         object.append("type", RecordType.changeSetExecution.name());
         for (ChangeSetAttribute attribute : changeSetAttributes) {
             object.append(attribute.name(), attribute.getAttributeValue(changeSet));
         }
         object.append("date", DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.format(System.currentTimeMillis()));
-        getMongeezCollection().insertOne(object);
+        if (stats != null) {
+            stats.appendTo(object);
+        }
+        object.append(ChangeSetExecutionStats.HOST, host);
+        if (releaseLabel != null) {
+            object.append(ChangeSetExecutionStats.RELEASE, releaseLabel);
+        }
+        if (executionLogBatchSize <= 1) {
+            getExecutionLogCollection().insertOne(object);
+        } else {
+            bufferExecutionRecord(object);
+        }
+        executedChangeSets.add(getExecutionKey(changeSet));
+    }
+
+    private synchronized void bufferExecutionRecord(Document record) {
+        pendingExecutionRecords.add(record);
+        if (pendingExecutionRecords.size() >= executionLogBatchSize) {
+            writeExecutionRecords();
+        }
+    }
+
+    /**
+     * Hands the buffered records over to a background writer, so that changesets don't wait for them to be written
+     */
+    private void writeExecutionRecords() {
+        if (pendingExecutionRecords.isEmpty()) {
+            return;
+        }
+        final List<Document> records = new ArrayList<Document>(pendingExecutionRecords);
+        pendingExecutionRecords.clear();
+        if (executionLogWriter == null) {
+            executionLogWriter = Executors.newSingleThreadExecutor();
+        }
+        pendingExecutionWrites.add(executionLogWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                getExecutionLogCollection().insertMany(records);
+            }
+        }));
+    }
+
+    /**
+     * Writes all the buffered execution records, and waits until they have been acknowledged
+     * @throws MongoException if any of the records couldn't be written
+     */
+    public synchronized void flush() {
+        writeExecutionRecords();
+        RuntimeException failure = null;
+        try {
+            for (Future<?> write : pendingExecutionWrites) {
+                try {
+                    write.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new MongoException("Unable to write changeset execution records", e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while writing changeset execution records", e);
+        } finally {
+            pendingExecutionWrites.clear();
+            if (executionLogWriter != null) {
+                executionLogWriter.shutdown();
+                executionLogWriter = null;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Sets how many changeset execution records are buffered before being written together. Defaults to 1, which
+     * writes every record synchronously before the next changeset runs.
+     * <p>
+     * With a larger batch, full batches are written in the background, and the rest on {@link #flush()}. A record is
+     * only durable once its batch has been acknowledged with the {@link #setExecutionLogWriteConcern(WriteConcern)
+     * execution log write concern}; if the process dies before that, the changeset will be executed again on the next
+     * run.
+     */
+    public void setExecutionLogBatchSize(int executionLogBatchSize) {
+        this.executionLogBatchSize = executionLogBatchSize;
+    }
+
+    /**
+     * Sets the write concern of changeset execution records, instead of the one of the client
+     */
+    public void setExecutionLogWriteConcern(WriteConcern executionLogWriteConcern) {
+        this.executionLogWriteConcern = executionLogWriteConcern;
+    }
+
+    /**
+     * Sets the label of the release being deployed, such as its version, recorded with every changeset executed
+     */
+    public void setReleaseLabel(String releaseLabel) {
+        this.releaseLabel = releaseLabel;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private MongoCollection<Document> getExecutionLogCollection() {
+        MongoCollection<Document> collection = getMongeezCollection();
+        return executionLogWriteConcern != null ? collection.withWriteConcern(executionLogWriteConcern) : collection;
     }
 }
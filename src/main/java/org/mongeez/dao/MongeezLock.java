@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A lock on changeset execution shared by every node using the same mongeez collection, held in a lock record with a
+ * lease. The holder renews the lease in the background; a lease which isn't renewed, as when its holder died, expires
+ * and the lock can be taken over. Leases are computed with the server clock, which needs MongoDB 4.2 or later.
+ */
+public class MongeezLock {
+    private static final Logger logger = LoggerFactory.getLogger(MongeezLock.class);
+
+    private static final String LOCK_ID = "mongeezLock";
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final MongoCollection<Document> collection;
+    private final long leaseMillis;
+    private final String owner;
+    private final LeaseHeartbeat heartbeat;
+
+    public MongeezLock(MongoClient client, String dbName, long leaseMillis) {
+        this.collection = client.getDatabase(dbName).getCollection("mongeez");
+        this.leaseMillis = leaseMillis;
+        this.owner = LeaseHeartbeat.newOwner();
+        this.heartbeat = new LeaseHeartbeat("mongeez-lock-heartbeat", leaseMillis, new Runnable() {
+            @Override
+            public void run() {
+                renew();
+            }
+        });
+    }
+
+    /**
+     * Waits for the lock, polling with an exponential backoff, until it is acquired or there's no need for it anymore
+     * @param waitMillis how long to wait before giving up with a {@link MongoException}
+     * @param done checked between polls, to stop waiting when the holder has done what was needed
+     * @return true if the lock was acquired, false if done
+     */
+    public boolean acquire(long waitMillis, BooleanSupplier done) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!tryAcquire()) {
+            if (done.getAsBoolean()) {
+                return false;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new MongoException("Timed out waiting for the mongeez lock, held by " + getHolder());
+            }
+            logger.info("Waiting for the mongeez lock, held by {}", getHolder());
+            try {
+                Thread.sleep(Math.min(backoff, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MongoException("Interrupted while waiting for the mongeez lock", e);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the lock if it is free or its lease has expired, and starts renewing the lease
+     * @return whether the lock was acquired
+     */
+    public synchronized boolean tryAcquire() {
+        Bson available = Filters.and(Filters.eq("_id", LOCK_ID), Filters.or(
+                Filters.eq("owner", owner),
+                Filters.expr(new Document("$lt", Arrays.asList("$expiresAt", "$$NOW")))));
+        try {
+            collection.updateOne(available, lease(), new UpdateOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            // the lock record exists, and another node's lease is running
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+        logger.info("Acquired the mongeez lock as {}", owner);
+        heartbeat.start();
+        return true;
+    }
+
+    /**
+     * Stops renewing the lease and frees the lock, if it is still held
+     */
+    public synchronized void release() {
+        if (!heartbeat.isRunning()) {
+            return;
+        }
+        heartbeat.stop();
+        try {
+            collection.deleteOne(Filters.and(Filters.eq("_id", LOCK_ID), Filters.eq("owner", owner)));
+            logger.info("Released the mongeez lock");
+        } catch (RuntimeException e) {
+            logger.warn("Unable to release the mongeez lock, it will be free once its lease expires", e);
+        }
+    }
+
+    private List<Bson> lease() {
+        return Collections.<Bson>singletonList(new Document("$set", new Document("type", RecordType.lock.name())
+                .append("owner", owner)
+                .append("expiresAt", LeaseHeartbeat.expiresAt(leaseMillis))));
+    }
+
+    private void renew() {
+        try {
+            UpdateResult result = collection.updateOne(
+                    Filters.and(Filters.eq("_id", LOCK_ID), Filters.eq("owner", owner)), lease());
+            if (result.getMatchedCount() == 0) {
+                logger.error("Lost the mongeez lock, its lease expired before it could be renewed");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to renew the mongeez lock lease", e);
+        }
+    }
+
+    private String getHolder() {
+        Document lock = collection.find(Filters.eq("_id", LOCK_ID)).first();
+        return lock != null ? lock.getString("owner") : "nobody";
+    }
+}
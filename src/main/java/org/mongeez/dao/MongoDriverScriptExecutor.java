@@ -0,0 +1,271 @@
+package org.mongeez.dao;
+
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.json.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This executes changesets written as <a href="https://www.mongodb.com/docs/manual/reference/command/">command
+ * documents</a> directly through the java driver, without any shell client. A script is a single command document in
+ * extended JSON, or an array of them run in order, for example:
+ * <pre>
+ * [
+ *   { "createIndexes": "user", "indexes": [ { "key": { "name": 1 }, "name": "name_1" } ] },
+ *   { "insert": "user", "documents": [ { "name": "Michael Lysaght" } ] },
+ *   { "update": "user", "updates": [ { "q": { "name": "Michael Lysaght" }, "u": { "$set": { "nyc": true } } } ] }
+ * ]
+ * </pre>
+ * Bulk writes are written as a {@code bulkWrite} document naming the collection, with the operations of the shell's
+ * {@code db.collection.bulkWrite()}, and run as a single bulk write through the driver:
+ * <pre>
+ * { "bulkWrite": "user", "ordered": true, "operations": [
+ *   { "insertOne": { "document": { "name": "Michael Lysaght" } } },
+ *   { "updateMany": { "filter": { "nyc": true }, "update": { "$set": { "city": "NYC" } }, "upsert": false } },
+ *   { "replaceOne": { "filter": { "name": "Oleksii Iepishkin" }, "replacement": { "name": "Oleksii" } } },
+ *   { "deleteOne": { "filter": { "name": "Michael Lysaght" } } }
+ * ] }
+ * </pre>
+ * Commands run against the database the executor was created for, unless the document names another one in a
+ * {@code $db} field. Script files are read one command at a time, each command running before the next one is read.
+ */
+public class MongoDriverScriptExecutor implements ShellScriptExecutor {
+  private final Logger logger = LoggerFactory.getLogger(MongoDriverScriptExecutor.class);
+
+  private static final String DATABASE_FIELD = "$db";
+  private static final String BULK_WRITE_FIELD = "bulkWrite";
+
+  private final MongoClient client;
+  private final String dbName;
+  private final DocumentCodec codec = new DocumentCodec();
+  private int maxConcurrency = 1;
+  private final ThreadLocal<long[]> documentsAffected = new ThreadLocal<>();
+
+  public MongoDriverScriptExecutor(MongoClient client, String dbName) {
+    this.client = client;
+    this.dbName = dbName;
+  }
+
+  @Override
+  public void runScript(String filePath) {
+    documentsAffected.set(new long[1]);
+    try (Reader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+      readCommands(reader, new CommandHandler() {
+        @Override
+        public void handle(Document command) {
+          runCommand(command);
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to read script file " + filePath, e);
+    }
+  }
+
+  @Override
+  public boolean canRunScriptBody() {
+    return true;
+  }
+
+  @Override
+  public void runScriptBody(String body) {
+    documentsAffected.set(new long[1]);
+    for (Document command : parseCommands(body)) {
+      runCommand(command);
+    }
+  }
+
+  /**
+   * Adds up the {@code n} reported by the write commands of the last script: the documents inserted, matched by
+   * updates, or deleted
+   */
+  @Override
+  public long getDocumentsAffected() {
+    long[] affected = documentsAffected.get();
+    return affected != null ? affected[0] : -1;
+  }
+
+  @Override
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Sets how many scripts may run at the same time, as the client is shared between threads. Defaults to 1.
+   */
+  public void setMaxConcurrency(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * @return the command documents of the script, as they would be run
+   * @throws org.bson.json.JsonParseException if the script isn't written in extended JSON
+   */
+  public List<Document> parseCommands(String body) {
+    final List<Document> commands = new ArrayList<>();
+    readCommands(new StringReader(body), new CommandHandler() {
+      @Override
+      public void handle(Document command) {
+        commands.add(command);
+      }
+    });
+    return commands;
+  }
+
+  /**
+   * Reads the commands one at a time, so that a file with many commands is never held in memory at once
+   */
+  private void readCommands(Reader reader, CommandHandler handler) {
+    JsonReader json = new JsonReader(reader);
+    DecoderContext context = DecoderContext.builder().build();
+    if (json.readBsonType() == BsonType.ARRAY) {
+      json.readStartArray();
+      BsonType type;
+      while ((type = json.readBsonType()) != BsonType.END_OF_DOCUMENT) {
+        if (type != BsonType.DOCUMENT) {
+          throw new MongoException("Expected a command document but found " + type);
+        }
+        handler.handle(codec.decode(json, context));
+      }
+      json.readEndArray();
+    } else {
+      handler.handle(codec.decode(json, context));
+    }
+  }
+
+  private interface CommandHandler {
+    void handle(Document command);
+  }
+
+  private void runCommand(Document command) {
+    Object commandDbName = command.remove(DATABASE_FIELD);
+    if (command.isEmpty()) {
+      throw new MongoException("Empty command document");
+    }
+    MongoDatabase db = client.getDatabase(commandDbName != null ? commandDbName.toString() : dbName);
+    // the bulkWrite command of the server takes a number rather than a collection name
+    if (command.get(BULK_WRITE_FIELD) instanceof String) {
+      runBulkWrite(db, command);
+      return;
+    }
+    logger.debug("Running command {} on {}", command.keySet().iterator().next(), db.getName());
+    Document result = db.runCommand(command);
+    // write commands report their errors in the result, rather than failing the command
+    if (result.containsKey("writeErrors") || result.containsKey("writeConcernError")) {
+      throw new MongoException("Error in running command " + command.toJson() + ": " + result.toJson());
+    }
+    long[] affected = documentsAffected.get();
+    if (affected != null && result.get("n") instanceof Number) {
+      affected[0] += ((Number) result.get("n")).longValue();
+    }
+  }
+
+  private void runBulkWrite(MongoDatabase db, Document bulkWrite) {
+    String collectionName = bulkWrite.getString(BULK_WRITE_FIELD);
+    logger.debug("Running bulk write on {}.{}", db.getName(), collectionName);
+    BulkWriteResult result = db.getCollection(collectionName).bulkWrite(getWriteModels(bulkWrite),
+        new BulkWriteOptions().ordered(bulkWrite.getBoolean("ordered", true)));
+    long[] affected = documentsAffected.get();
+    if (affected != null) {
+      // as the n of the write commands: documents inserted, matched or upserted by updates, and deleted
+      affected[0] += result.getInsertedCount() + result.getMatchedCount() + result.getUpserts().size()
+          + result.getDeletedCount();
+    }
+  }
+
+  /**
+   * @return the write models of the operations of a {@code bulkWrite} document
+   */
+  static List<WriteModel<Document>> getWriteModels(Document bulkWrite) {
+    List<?> operations = bulkWrite.get("operations", List.class);
+    if (operations == null || operations.isEmpty()) {
+      throw new MongoException("No operations in bulk write " + bulkWrite.toJson());
+    }
+    List<WriteModel<Document>> models = new ArrayList<>(operations.size());
+    for (Object operation : operations) {
+      if (!(operation instanceof Document) || ((Document) operation).size() != 1) {
+        throw new MongoException("Expected a single operation in " + operation);
+      }
+      Map.Entry<String, Object> entry = ((Document) operation).entrySet().iterator().next();
+      if (!(entry.getValue() instanceof Document)) {
+        throw new MongoException("Expected the arguments of " + entry.getKey() + " in a document");
+      }
+      models.add(getWriteModel(entry.getKey(), (Document) entry.getValue()));
+    }
+    return models;
+  }
+
+  private static WriteModel<Document> getWriteModel(String name, Document arguments) {
+    switch (name) {
+      case "insertOne":
+        return new InsertOneModel<>(getDocument(name, arguments, "document"));
+      case "updateOne":
+        return getUpdateModel(name, arguments, false);
+      case "updateMany":
+        return getUpdateModel(name, arguments, true);
+      case "replaceOne":
+        return new ReplaceOneModel<>(getDocument(name, arguments, "filter"),
+            getDocument(name, arguments, "replacement"),
+            new ReplaceOptions().upsert(arguments.getBoolean("upsert", false)));
+      case "deleteOne":
+        return new DeleteOneModel<>(getDocument(name, arguments, "filter"));
+      case "deleteMany":
+        return new DeleteManyModel<>(getDocument(name, arguments, "filter"));
+      default:
+        throw new MongoException("Unsupported bulk write operation " + name);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static WriteModel<Document> getUpdateModel(String name, Document arguments, boolean many) {
+    Document filter = getDocument(name, arguments, "filter");
+    UpdateOptions options = new UpdateOptions().upsert(arguments.getBoolean("upsert", false));
+    if (arguments.get("arrayFilters") instanceof List) {
+      options.arrayFilters((List<Document>) arguments.get("arrayFilters"));
+    }
+    Object update = arguments.get("update");
+    // an aggregation pipeline, or an update document
+    if (update instanceof List) {
+      List<Document> pipeline = (List<Document>) update;
+      return many ? new UpdateManyModel<Document>(filter, pipeline, options)
+          : new UpdateOneModel<Document>(filter, pipeline, options);
+    }
+    Document updateDocument = getDocument(name, arguments, "update");
+    return many ? new UpdateManyModel<Document>(filter, updateDocument, options)
+        : new UpdateOneModel<Document>(filter, updateDocument, options);
+  }
+
+  private static Document getDocument(String name, Document arguments, String field) {
+    Object value = arguments.get(field);
+    if (!(value instanceof Document)) {
+      throw new MongoException("Expected a " + field + " document in " + name);
+    }
+    return (Document) value;
+  }
+}
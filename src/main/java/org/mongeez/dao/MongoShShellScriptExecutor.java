@@ -2,6 +2,9 @@ package org.mongeez.dao;
 
 /**
  * This executes scripts with a <a href="https://www.mongodb.com/docs/mongodb-shell">mongosh shell client</a>
+ * <p>
+ * mongosh only awaits database calls in code it parses itself, so scripts are always loaded from temporary files
+ * rather than evaluated from stdin.
  */
 public class MongoShShellScriptExecutor extends AbstractMongoShellScriptExecutor implements ShellScriptExecutor {
   public MongoShShellScriptExecutor(String mongoClientUri) {
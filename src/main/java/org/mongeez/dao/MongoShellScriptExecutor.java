@@ -2,15 +2,24 @@ package org.mongeez.dao;
 
 /**
  * This executes scripts with a <a href="https://www.mongodb.com/docs/v4.4/mongo">mongo shell client</a>
+ * <p>
+ * Script bodies are sent straight down the shell's stdin; use {@link #setStreamScriptBodies(boolean)} to fall back to
+ * loading them from temporary files.
  */
 public class MongoShellScriptExecutor extends AbstractMongoShellScriptExecutor implements ShellScriptExecutor {
 
+  private boolean streamScriptBodies = true;
+
   public MongoShellScriptExecutor(String mongoClientUri) {
     super(mongoClientUri, "mongo", "MongoDB server version");
   }
 
-  public void shutdown() throws InterruptedException {
-    sendCommand(mongoProcess, "exit");
-    mongoProcess.waitFor();
+  @Override
+  public boolean canRunScriptBody() {
+    return streamScriptBodies;
+  }
+
+  public void setStreamScriptBodies(boolean streamScriptBodies) {
+    this.streamScriptBodies = streamScriptBodies;
   }
 }
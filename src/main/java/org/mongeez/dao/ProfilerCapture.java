@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns on the database profiler for operations slower than a threshold while a changeset runs, and sums up the
+ * operations it profiled. The profiling level and threshold the database had before are restored afterwards.
+ * <p>
+ * The profiler sees every slow operation on the database, so operations of other clients, or of changesets running
+ * at the same time, are summed up as well. Captures running at the same time share the profiler: the first one to
+ * start saves the previous level, and the last one to stop restores it. A database which can't be profiled, as
+ * through mongos, is only logged.
+ */
+public class ProfilerCapture {
+    private static final Logger logger = LoggerFactory.getLogger(ProfilerCapture.class);
+
+    private static final String PROFILE_COLLECTION = "system.profile";
+    /** The profiled operations read for a changeset at most */
+    private static final int MAX_ENTRIES = 10000;
+    private static final int TOP_OPS = 5;
+
+    private final MongoDatabase db;
+    private final int slowMillis;
+    private final Object lock = new Object();
+    /** The captures started and not stopped yet, guarded by the lock */
+    private int active = 0;
+    /** The profiling level to restore once the last capture stops, guarded by the lock */
+    private Document previous = null;
+
+    public ProfilerCapture(MongoClient client, String dbName, int slowMillis) {
+        this(client.getDatabase(dbName), slowMillis);
+    }
+
+    ProfilerCapture(MongoDatabase db, int slowMillis) {
+        this.db = db;
+        this.slowMillis = slowMillis;
+    }
+
+    /**
+     * Turns on the profiler
+     * @return the capture to stop once the changeset has run, or null if the database can't be profiled
+     */
+    public Window start() {
+        synchronized (lock) {
+            try {
+                if (active == 0) {
+                    Document level = readLevel();
+                    setLevel(1, slowMillis);
+                    previous = level;
+                }
+                Window window = new Window(getLastProfiled());
+                active++;
+                return window;
+            } catch (MongoException e) {
+                logger.warn("Unable to turn on the profiler of " + getDbName(), e);
+                if (active == 0 && previous != null) {
+                    restore();
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Restores the profiling level saved by the first capture, once the last one stops
+     */
+    private void release() {
+        synchronized (lock) {
+            if (--active == 0) {
+                restore();
+            }
+        }
+    }
+
+    private void restore() {
+        try {
+            setLevel(previous.get("was"), previous.get("slowms"));
+        } catch (MongoException e) {
+            logger.error("Unable to restore the profiler of " + getDbName() + " to " + previous.toJson(), e);
+        }
+        previous = null;
+    }
+
+    Document readLevel() {
+        return db.runCommand(new Document("profile", -1));
+    }
+
+    void setLevel(Object level, Object slowms) {
+        db.runCommand(new Document("profile", level).append("slowms", slowms));
+    }
+
+    /**
+     * @return when the latest operation was profiled, going by the server clock, or null if none was
+     */
+    Date getLastProfiled() {
+        Document last = db.getCollection(PROFILE_COLLECTION).find()
+                .sort(Sorts.descending("ts")).projection(new Document("ts", 1)).first();
+        return last != null ? last.getDate("ts") : null;
+    }
+
+    /**
+     * @return the operations profiled after the given time, leaving out the reads of the profile itself
+     */
+    Iterable<Document> getProfiled(Date after) {
+        Bson window = Filters.ne("ns", getDbName() + "." + PROFILE_COLLECTION);
+        if (after != null) {
+            window = Filters.and(Filters.gt("ts", after), window);
+        }
+        return db.getCollection(PROFILE_COLLECTION).find(window).sort(Sorts.ascending("ts")).limit(MAX_ENTRIES);
+    }
+
+    String getDbName() {
+        return db.getName();
+    }
+
+    public class Window {
+        private final Date after;
+        private boolean stopped = false;
+
+        private Window(Date after) {
+            this.after = after;
+        }
+
+        /**
+         * Restores the previous profiling level if no other capture is running, and sums up the operations profiled
+         * since the capture started, going by the server clock
+         * @return the summary, or null if the profiled operations couldn't be read
+         */
+        public Document stop() {
+            if (stopped) {
+                throw new IllegalStateException("Profiler capture already stopped");
+            }
+            stopped = true;
+            release();
+            try {
+                return summarize(getProfiled(after), TOP_OPS);
+            } catch (MongoException e) {
+                logger.warn("Unable to read the profiled operations of " + getDbName(), e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Adds up the work of the profiled operations, and keeps the slowest ones with their plan
+     */
+    static Document summarize(Iterable<Document> entries, int topOps) {
+        long ops = 0;
+        long totalMillis = 0;
+        long docsExamined = 0;
+        long keysExamined = 0;
+        long returned = 0;
+        long collScans = 0;
+        List<Document> slowest = new ArrayList<Document>();
+        for (Document entry : entries) {
+            ops++;
+            totalMillis += getLong(entry, "millis");
+            docsExamined += getLong(entry, "docsExamined");
+            keysExamined += getLong(entry, "keysExamined");
+            returned += getLong(entry, "nreturned");
+            String planSummary = entry.getString("planSummary");
+            boolean collScan = planSummary != null && planSummary.contains("COLLSCAN");
+            if (collScan) {
+                collScans++;
+            }
+            slowest.add(new Document("op", entry.getString("op"))
+                    .append("ns", entry.getString("ns"))
+                    .append("millis", getLong(entry, "millis"))
+                    .append("planSummary", planSummary)
+                    .append("docsExamined", getLong(entry, "docsExamined"))
+                    .append("keysExamined", getLong(entry, "keysExamined"))
+                    .append("nreturned", getLong(entry, "nreturned"))
+                    .append("collScan", collScan));
+            if (slowest.size() > topOps) {
+                slowest.remove(Collections.min(slowest, BY_MILLIS));
+            }
+        }
+        Collections.sort(slowest, Collections.reverseOrder(BY_MILLIS));
+        return new Document("ops", ops)
+                .append("totalMillis", totalMillis)
+                .append("docsExamined", docsExamined)
+                .append("keysExamined", keysExamined)
+                .append("nreturned", returned)
+                .append("collScans", collScans)
+                .append("slowest", slowest);
+    }
+
+    private static final Comparator<Document> BY_MILLIS = new Comparator<Document>() {
+        @Override
+        public int compare(Document first, Document second) {
+            return Long.compare(first.getLong("millis"), second.getLong("millis"));
+        }
+    };
+
+    private static long getLong(Document entry, String field) {
+        Object value = entry.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
@@ -14,5 +14,5 @@
 package org.mongeez.dao;
 
 public enum RecordType {
-    changeSetExecution, configuration;
+    changeSetExecution, configuration, lock, claim;
 }
@@ -1,5 +1,65 @@
 package org.mongeez.dao;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 public interface ShellScriptExecutor {
   void runScript(String filePath);
+
+  /**
+   * Whether script bodies can be handed to {@link #runScriptBody(String)} directly, without first writing them to a
+   * temporary file for {@link #runScript(String)}
+   */
+  default boolean canRunScriptBody() {
+    return false;
+  }
+
+  /**
+   * Runs the body from a temporary file, for executors which can only run scripts from files
+   */
+  default void runScriptBody(String body) {
+    File file = null;
+    try {
+      file = File.createTempFile("mongeez-script", ".js");
+      try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+        out.write(body);
+      }
+      runScript(file.getAbsolutePath());
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to write script to a temporary file", e);
+    } finally {
+      if (file != null && !file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * The number of documents inserted, updated or deleted by the last script run from the calling thread, or -1 if
+   * this executor cannot tell
+   */
+  default long getDocumentsAffected() {
+    return -1;
+  }
+
+  /**
+   * The number of scripts this executor can run at the same time, from different threads
+   */
+  default int getMaxConcurrency() {
+    return 1;
+  }
+
+  /**
+   * The name of this executor, as it is reported in metrics
+   */
+  default String getName() {
+    return getClass().getSimpleName();
+  }
+
+  default void shutdown() throws InterruptedException {
+  }
 }
@@ -0,0 +1,128 @@
+package org.mongeez.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Keeps a fixed number of started shell executors, and hands every script to an idle one. Scripts can be run from
+ * as many threads as there are executors in the pool.
+ */
+public class ShellScriptExecutorPool implements ShellScriptExecutor {
+  private final Logger logger = LoggerFactory.getLogger(ShellScriptExecutorPool.class);
+
+  public interface ExecutorFactory {
+    ShellScriptExecutor create();
+  }
+
+  private final List<ShellScriptExecutor> executors = new ArrayList<>();
+  private final BlockingQueue<ShellScriptExecutor> idleExecutors = new LinkedBlockingQueue<>();
+  private final ThreadLocal<Long> documentsAffected = new ThreadLocal<>();
+
+  /**
+   * Starts all the executors of the pool at the same time, and waits for them to be ready
+   */
+  public ShellScriptExecutorPool(int size, final ExecutorFactory factory) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Shell pool size must be at least 1, was " + size);
+    }
+    ExecutorService starter = Executors.newFixedThreadPool(size);
+    try {
+      List<Future<ShellScriptExecutor>> started = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        started.add(starter.submit(new Callable<ShellScriptExecutor>() {
+          @Override
+          public ShellScriptExecutor call() {
+            return factory.create();
+          }
+        }));
+      }
+      RuntimeException failure = null;
+      for (Future<ShellScriptExecutor> executor : started) {
+        try {
+          executors.add(executor.get());
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof RuntimeException
+                ? (RuntimeException) e.getCause()
+                : new RuntimeException("Exception in starting shell executor", e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        shutdown();
+        throw failure;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while starting shell executors", e);
+    } finally {
+      starter.shutdown();
+    }
+    idleExecutors.addAll(executors);
+    logger.info("Started {} shell executors", size);
+  }
+
+  @Override
+  public void runScript(String filePath) {
+    ShellScriptExecutor executor = acquire();
+    try {
+      executor.runScript(filePath);
+      documentsAffected.set(executor.getDocumentsAffected());
+    } finally {
+      idleExecutors.add(executor);
+    }
+  }
+
+  @Override
+  public boolean canRunScriptBody() {
+    return executors.get(0).canRunScriptBody();
+  }
+
+  @Override
+  public void runScriptBody(String body) {
+    ShellScriptExecutor executor = acquire();
+    try {
+      executor.runScriptBody(body);
+      documentsAffected.set(executor.getDocumentsAffected());
+    } finally {
+      idleExecutors.add(executor);
+    }
+  }
+
+  @Override
+  public long getDocumentsAffected() {
+    Long affected = documentsAffected.get();
+    return affected != null ? affected : -1;
+  }
+
+  @Override
+  public int getMaxConcurrency() {
+    return executors.size();
+  }
+
+  @Override
+  public void shutdown() throws InterruptedException {
+    for (ShellScriptExecutor executor : executors) {
+      executor.shutdown();
+    }
+  }
+
+  private ShellScriptExecutor acquire() {
+    try {
+      return idleExecutors.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for an idle shell executor", e);
+    }
+  }
+}
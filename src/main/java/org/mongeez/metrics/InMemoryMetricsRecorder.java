@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the count, total and maximum of every timer, and the value of every counter, for each set of tags, so that
+ * they can be looked at once a run is over
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder {
+    private final ConcurrentMap<MetricId, TimerStats> timers = new ConcurrentHashMap<MetricId, TimerStats>();
+    private final ConcurrentMap<MetricId, AtomicLong> counters = new ConcurrentHashMap<MetricId, AtomicLong>();
+
+    @Override
+    public void recordTime(String name, long nanos, String... tags) {
+        MetricId id = new MetricId(name, tags);
+        TimerStats timer = timers.get(id);
+        if (timer == null) {
+            TimerStats created = new TimerStats();
+            timer = timers.putIfAbsent(id, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        timer.record(1, nanos, nanos);
+    }
+
+    @Override
+    public void increment(String name, long amount, String... tags) {
+        MetricId id = new MetricId(name, tags);
+        AtomicLong counter = counters.get(id);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(id, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(amount);
+    }
+
+    /**
+     * @param tags the tags to look for, timers recorded with other tags as well being added up
+     * @return the times recorded with the name and tags, empty if there are none
+     */
+    public TimerStats getTimer(String name, String... tags) {
+        MetricId query = new MetricId(name, tags);
+        TimerStats total = new TimerStats();
+        for (Map.Entry<MetricId, TimerStats> timer : timers.entrySet()) {
+            if (timer.getKey().matches(query)) {
+                TimerStats stats = timer.getValue();
+                synchronized (stats) {
+                    total.record(stats.count, stats.totalNanos, stats.maxNanos);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param tags the tags to look for, counters incremented with other tags as well being added up
+     */
+    public long getCount(String name, String... tags) {
+        MetricId query = new MetricId(name, tags);
+        long total = 0;
+        for (Map.Entry<MetricId, AtomicLong> counter : counters.entrySet()) {
+            if (counter.getKey().matches(query)) {
+                total += counter.getValue().get();
+            }
+        }
+        return total;
+    }
+
+    public void clear() {
+        timers.clear();
+        counters.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<MetricId, TimerStats> timer : new TreeMap<MetricId, TimerStats>(timers).entrySet()) {
+            out.append(timer.getKey()).append(' ').append(timer.getValue()).append('\n');
+        }
+        for (Map.Entry<MetricId, AtomicLong> counter : new TreeMap<MetricId, AtomicLong>(counters).entrySet()) {
+            out.append(counter.getKey()).append(" count=").append(counter.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    public static class TimerStats {
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        private synchronized void record(long count, long totalNanos, long maxNanos) {
+            this.count += count;
+            this.totalNanos += totalNanos;
+            this.maxNanos = Math.max(this.maxNanos, maxNanos);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "count=" + count + " totalNanos=" + totalNanos + " maxNanos=" + maxNanos;
+        }
+    }
+
+    private static class MetricId implements Comparable<MetricId> {
+        private final String name;
+        private final Map<String, String> tags = new TreeMap<String, String>();
+
+        MetricId(String name, String[] tags) {
+            if (tags.length % 2 != 0) {
+                throw new IllegalArgumentException("Tags must be keys and values, but got " + tags.length + " strings");
+            }
+            this.name = name;
+            for (int i = 0; i < tags.length; i += 2) {
+                this.tags.put(tags[i], tags[i + 1]);
+            }
+        }
+
+        boolean matches(MetricId query) {
+            if (!name.equals(query.name)) {
+                return false;
+            }
+            for (Map.Entry<String, String> tag : query.tags.entrySet()) {
+                if (!tags.containsKey(tag.getKey())) {
+                    return false;
+                }
+                String value = tags.get(tag.getKey());
+                if (value == null ? tag.getValue() != null : !value.equals(tag.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MetricId)) {
+                return false;
+            }
+            MetricId other = (MetricId) o;
+            return name.equals(other.name) && tags.equals(other.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + tags.hashCode();
+        }
+
+        @Override
+        public int compareTo(MetricId other) {
+            return toString().compareTo(other.toString());
+        }
+
+        @Override
+        public String toString() {
+            return tags.isEmpty() ? name : name + tags;
+        }
+    }
+}
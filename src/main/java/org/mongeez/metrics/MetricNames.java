@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+/**
+ * The timers and counters recorded by mongeez, and their tags
+ */
+public final class MetricNames {
+    /** Listing the change files; no tags */
+    public static final String FILE_DISCOVERY = "mongeez.files.discovery";
+    /** Parsing a change file, or loading it from the parse cache; tagged by file and reader */
+    public static final String PARSE = "mongeez.parse";
+    /** Validating all the changesets; no tags */
+    public static final String VALIDATION = "mongeez.validation";
+    /** Configuring the mongeez collection and reading the executed changesets; no tags */
+    public static final String DAO_CONFIGURE = "mongeez.dao.configure";
+    /** Starting the script executor, as when starting mongo shells; tagged by executor */
+    public static final String EXECUTOR_STARTUP = "mongeez.executor.startup";
+    /** Looking up whether a changeset was executed; no tags */
+    public static final String EXECUTED_LOOKUP = "mongeez.executed.lookup";
+    /** Running a script; tagged by changeset, file and executor */
+    public static final String SCRIPT_EXECUTION = "mongeez.script.execution";
+    /** Writing, or buffering, a changeset execution record; tagged by changeset and file */
+    public static final String EXECUTION_LOG = "mongeez.execution.log";
+    /** Counts changesets executed; tagged by executor */
+    public static final String CHANGESETS_EXECUTED = "mongeez.changesets.executed";
+    /** Counts changesets not executed; tagged by reason */
+    public static final String CHANGESETS_SKIPPED = "mongeez.changesets.skipped";
+    /** Counts changesets that failed; tagged by changeset, file and executor */
+    public static final String CHANGESETS_FAILED = "mongeez.changesets.failed";
+
+    public static final String CHANGESET_TAG = "changeSet";
+    public static final String FILE_TAG = "file";
+    public static final String EXECUTOR_TAG = "executor";
+    public static final String READER_TAG = "reader";
+    public static final String REASON_TAG = "reason";
+
+    private MetricNames() {
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+/**
+ * Receives the timers and counters of a mongeez run. Tags are given as alternating keys and values, and a value may
+ * be null when it is unknown. Recorders are called from several threads at once when changes are parsed or executed
+ * in parallel.
+ * @see MetricNames
+ * @see InMemoryMetricsRecorder
+ * @see MicrometerMetricsRecorder
+ */
+public interface MetricsRecorder {
+
+    void recordTime(String name, long nanos, String... tags);
+
+    void increment(String name, long amount, String... tags);
+}
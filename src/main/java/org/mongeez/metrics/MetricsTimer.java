@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Times a phase from {@link #start(MetricsRecorder, String, String...)} until it is {@link #stop() stopped} or
+ * closed, whichever comes first, and records it once. Closing a timer which hasn't been stopped means the phase
+ * failed, so the phase is stopped on success, and the timer closed in any case:
+ * <pre>
+ * try (MetricsTimer timer = MetricsTimer.start(recorder, MetricNames.PARSE, MetricNames.FILE_TAG, file)) {
+ *     ...
+ *     timer.stop();
+ * }
+ * </pre>
+ * Phases with a Java Flight Recorder event also commit that event, with the tags, size and outcome of the phase,
+ * while a recording is enabling it; otherwise, as on JVMs without flight recorder, nothing more is done.
+ */
+public final class MetricsTimer implements AutoCloseable {
+    private static final PhaseEvents EVENTS = loadFlightRecorderEvents();
+
+    private final MetricsRecorder recorder;
+    private final String name;
+    private String[] tags;
+    private final Object event;
+    private final long start;
+    private long bytes = -1;
+    private boolean stopped = false;
+
+    private MetricsTimer(MetricsRecorder recorder, String name, String[] tags) {
+        this.recorder = recorder;
+        this.name = name;
+        this.tags = tags;
+        this.event = EVENTS != null ? EVENTS.begin(name) : null;
+        this.start = System.nanoTime();
+    }
+
+    public static MetricsTimer start(MetricsRecorder recorder, String name, String... tags) {
+        return new MetricsTimer(recorder, name, tags);
+    }
+
+    /**
+     * Adds a tag only known once the phase has started
+     */
+    public MetricsTimer tag(String key, String value) {
+        String[] moreTags = Arrays.copyOf(tags, tags.length + 2);
+        moreTags[tags.length] = key;
+        moreTags[tags.length + 1] = value;
+        tags = moreTags;
+        return this;
+    }
+
+    /**
+     * Whether a flight recorder event is recorded for this phase, to know if its size is worth working out
+     */
+    public boolean isTraced() {
+        return event != null;
+    }
+
+    /**
+     * Sets the size of what the phase works on, for its flight recorder event
+     */
+    public MetricsTimer setBytes(long bytes) {
+        this.bytes = bytes;
+        return this;
+    }
+
+    /**
+     * Ends the phase successfully
+     * @return the time elapsed since the timer started, in nanoseconds
+     */
+    public long stop() {
+        return stop(true);
+    }
+
+    /**
+     * Ends the phase as failed, unless it has already been stopped
+     */
+    @Override
+    public void close() {
+        stop(false);
+    }
+
+    private long stop(boolean succeeded) {
+        long nanos = System.nanoTime() - start;
+        if (!stopped) {
+            stopped = true;
+            recorder.recordTime(name, nanos, tags);
+            if (event != null) {
+                EVENTS.commit(event, tags, bytes, succeeded);
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * Loads the flight recorder events by name, as they are compiled apart for java 11 and left out of java 8 builds
+     * @return the events, or null if the JVM has no flight recorder, or the events were left out
+     */
+    private static PhaseEvents loadFlightRecorderEvents() {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (PhaseEvents) Class.forName("org.mongeez.metrics.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LoggerFactory.getLogger(MetricsTimer.class).debug("Flight recorder events are disabled", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records into a Micrometer registry, which needs micrometer-core on the classpath; mongeez depends on it optionally.
+ * Timers are published with the registry's own histogram settings, which can be configured with a meter filter.
+ */
+public class MicrometerMetricsRecorder implements MetricsRecorder {
+    private static final String UNKNOWN_TAG_VALUE = "none";
+
+    private final MeterRegistry registry;
+
+    public MicrometerMetricsRecorder(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordTime(String name, long nanos, String... tags) {
+        registry.timer(name, withoutNulls(tags)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void increment(String name, long amount, String... tags) {
+        registry.counter(name, withoutNulls(tags)).increment(amount);
+    }
+
+    /**
+     * Micrometer doesn't take null tag values
+     */
+    private static String[] withoutNulls(String[] tags) {
+        String[] values = tags;
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] == null) {
+                if (values == tags) {
+                    values = tags.clone();
+                }
+                values[i] = UNKNOWN_TAG_VALUE;
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+/**
+ * Profiling events of the timed phases, which {@link MetricsTimer} starts and commits along with their timers
+ */
+interface PhaseEvents {
+
+    /**
+     * @return the started event of the phase, or null if the phase has no event or it is not being recorded
+     */
+    Object begin(String name);
+
+    void commit(Object started, String[] tags, long bytes, boolean succeeded);
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+import org.mongeez.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the changesets parsed from each change file in a local directory, keyed by a hash of the file content, the
+ * reader that parsed it and its charset, and the format of the entry, so that unchanged files are loaded from a compact
+ * binary form instead of being parsed again. Entries not used for {@link #MAX_UNUSED_DAYS} days are deleted the first
+ * time an entry is written.
+ */
+public class ChangeSetParseCache {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeSetParseCache.class);
+
+    /**
+     * Bump when changing what is written, so that entries written by other versions are ignored
+     */
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_SUFFIX = ".changesets";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAX_UNUSED_DAYS = 30;
+
+    private final File directory;
+    private final AtomicBoolean evicted = new AtomicBoolean(false);
+
+    public ChangeSetParseCache(File directory) {
+        this.directory = directory;
+    }
+
+    public List<ChangeSet> getChangeSets(Resource file, ChangeSetReader reader) {
+        String hash;
+        try {
+            hash = hash(file, reader);
+        } catch (IOException e) {
+            throw new ValidationException(e);
+        }
+        File entry = new File(directory, hash + ENTRY_SUFFIX);
+        if (entry.isFile()) {
+            try {
+                List<ChangeSet> changeSets = read(entry, file);
+                // the modification time tells when the entry was last used, for eviction
+                entry.setLastModified(System.currentTimeMillis());
+                for (ChangeSet changeSet : changeSets) {
+                    ChangeSetReaderUtil.populateChangeSetResourceInfo(changeSet, file);
+                }
+                logger.debug("Loaded {} changesets of {} from the parse cache", changeSets.size(), file.getFilename());
+                return changeSets;
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable parse cache entry {}", entry, e);
+            }
+        }
+
+        List<ChangeSet> changeSets = reader.getChangeSets(file);
+        if (evicted.compareAndSet(false, true)) {
+            evictUnused();
+        }
+        try {
+            write(entry, changeSets);
+        } catch (IOException e) {
+            logger.warn("Unable to write parse cache entry {}", entry, e);
+        }
+        return changeSets;
+    }
+
+    private String hash(Resource file, ChangeSetReader reader) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(ByteBuffer.allocate(4).putInt(FORMAT_VERSION).array());
+        digest.update(reader.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        if (reader instanceof FormattedJavascriptChangeSetReader) {
+            digest.update(((FormattedJavascriptChangeSetReader) reader).getCharset().name().getBytes(StandardCharsets.UTF_8));
+        }
+        // entries of files on disk keep script ranges, which must not be read from the start of other resources
+        digest.update((byte) (ChangeSetReaderUtil.getFile(file) != null ? 1 : 0));
+        byte[] buffer = new byte[8192];
+        try (InputStream in = file.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Deletes the entries of change files which were changed or removed, along with temporary files left behind
+     */
+    private void evictUnused() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_UNUSED_DAYS);
+        for (File file : files) {
+            if ((file.getName().endsWith(ENTRY_SUFFIX) || file.getName().endsWith(TEMPORARY_SUFFIX))
+                    && file.lastModified() < oldest && !file.delete()) {
+                logger.warn("Unable to delete unused parse cache entry {}", file);
+            }
+        }
+    }
+
+    private List<ChangeSet> read(File entry, Resource file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported parse cache format");
+            }
+            int count = in.readInt();
+            List<ChangeSet> changeSets = new ArrayList<ChangeSet>(count);
+            for (int i = 0; i < count; i++) {
+                ChangeSet changeSet = new ChangeSet();
+                changeSet.setChangeId(readString(in));
+                changeSet.setAuthor(readString(in));
+                changeSet.setContexts(readString(in));
+                changeSet.setDependsOn(readString(in));
+                changeSet.setCollections(readString(in));
+                changeSet.setFailOnError(in.readBoolean());
+                changeSet.setRunAlways(in.readBoolean());
+                changeSet.setParallel(in.readBoolean());
+                int scripts = in.readInt();
+                for (int j = 0; j < scripts; j++) {
+                    Script script = new Script();
+                    if (in.readBoolean()) {
+                        Charset charset = Charset.forName(readString(in));
+                        long offset = in.readLong();
+                        script.setSource(new ResourceRangeScriptSource(file, charset, offset, in.readLong()));
+                    } else {
+                        script.setBody(readString(in));
+                    }
+                    changeSet.add(script);
+                }
+                changeSets.add(changeSet);
+            }
+            return changeSets;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so that a concurrent reader never sees a partial entry
+     */
+    private void write(File entry, List<ChangeSet> changeSets) throws IOException {
+        Files.createDirectories(directory.toPath());
+        File temporary = File.createTempFile(entry.getName(), TEMPORARY_SUFFIX, directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(changeSets.size());
+                for (ChangeSet changeSet : changeSets) {
+                    writeString(out, changeSet.getChangeId());
+                    writeString(out, changeSet.getAuthor());
+                    writeString(out, changeSet.getContexts());
+                    writeString(out, changeSet.getDependsOn());
+                    writeString(out, changeSet.getCollections());
+                    out.writeBoolean(changeSet.isFailOnError());
+                    out.writeBoolean(changeSet.isRunAlways());
+                    out.writeBoolean(changeSet.isParallel());
+                    out.writeInt(changeSet.getCommands().size());
+                    for (Script script : changeSet.getCommands()) {
+                        // scripts read lazily keep their range, which is the same in the unchanged file
+                        if (script.getSource() instanceof ResourceRangeScriptSource) {
+                            ResourceRangeScriptSource source = (ResourceRangeScriptSource) script.getSource();
+                            out.writeBoolean(true);
+                            writeString(out, source.getCharset().name());
+                            out.writeLong(source.getOffset());
+                            out.writeLong(source.getLength());
+                        } else {
+                            out.writeBoolean(false);
+                            writeString(out, script.getBody());
+                        }
+                    }
+                }
+            }
+            Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // not writeUTF, which is limited to 64KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
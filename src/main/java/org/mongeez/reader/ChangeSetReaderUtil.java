@@ -17,6 +17,11 @@ import org.mongeez.commands.ChangeSet;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
 class ChangeSetReaderUtil {
     static void populateChangeSetResourceInfo(ChangeSet changeSet, Resource file) {
         changeSet.setFile(file.getFilename());
@@ -24,4 +29,41 @@ class ChangeSetReaderUtil {
             changeSet.setResourcePath(((ClassPathResource) file).getPath());
         }
     }
+
+    static boolean isCompressed(Resource file) {
+        String name = file.getFilename();
+        return name != null && name.endsWith(".gz");
+    }
+
+    /**
+     * Opens the content of the resource, decompressing it if needed
+     */
+    static InputStream openStream(Resource file) throws IOException {
+        InputStream in = file.getInputStream();
+        if (!isCompressed(file)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, 64 * 1024);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the file holding the content of the resource, or null if it isn't a file in the file system, such as
+     * inside a jar, or if it is compressed
+     */
+    static File getFile(Resource file) {
+        if (isCompressed(file)) {
+            return null;
+        }
+        try {
+            File path = file.getFile();
+            return path.isFile() ? path : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
 }
@@ -13,17 +13,17 @@
 
 package org.mongeez.reader;
 
-import org.mongeez.commands.ChangeFile;
-import org.mongeez.commands.ChangeFileSet;
 import org.mongeez.validation.ValidationException;
-import org.apache.commons.digester3.Digester;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
 import static java.lang.String.format;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,32 +34,31 @@ public class FilesetXMLReader {
     public List<Resource> getFiles(Resource file) {
         List<Resource> files = new ArrayList<Resource>();
 
-        try {
-            Digester digester = new Digester();
-
-            digester.setValidating(false);
-
-            digester.addObjectCreate("changeFiles", ChangeFileSet.class);
-            digester.addObjectCreate("changeFiles/file", ChangeFile.class);
-            digester.addSetProperties("changeFiles/file");
-            digester.addSetNext("changeFiles/file", "add");
-
-            logger.info("Parsing XML Fileset file {}", file.getFilename());
-            ChangeFileSet changeFileSet = (ChangeFileSet) digester.parse(file.getInputStream());
-            if (changeFileSet != null) {
-                logger.info("Num of changefiles found " + changeFileSet.getChangeFiles().size());
-                for (ChangeFile changeFile : changeFileSet.getChangeFiles()) {
-                    files.add(file.createRelative(changeFile.getPath()));
+        logger.info("Parsing XML Fileset file {}", file.getFilename());
+        try (InputStream in = file.getInputStream()) {
+            XMLStreamReader reader = XmlStreams.createReader(in);
+            try {
+                if (XmlStreams.nextElement(reader) && "changeFiles".equals(reader.getLocalName())) {
+                    while (XmlStreams.nextChildElement(reader)) {
+                        if ("file".equals(reader.getLocalName())) {
+                            String path = reader.getAttributeValue(null, "path");
+                            files.add(file.createRelative(path));
+                        }
+                        XmlStreams.skipElement(reader);
+                    }
+                    logger.info("Num of changefiles found " + files.size());
                 }
-            }
-            else {
-                String message = format("The file {} doesn't seem to contain a changeFiles declaration. Are you "
-                        + "using the correct file to initialize Mongeez?", file.getFilename());
-                throw new ValidationException(message);
+                else {
+                    String message = format("The file {} doesn't seem to contain a changeFiles declaration. Are you "
+                            + "using the correct file to initialize Mongeez?", file.getFilename());
+                    throw new ValidationException(message);
+                }
+            } finally {
+                reader.close();
             }
         } catch (IOException e) {
         	throw new ValidationException(e);
-        } catch (org.xml.sax.SAXException e) {
+        } catch (XMLStreamException e) {
         	throw new ValidationException(e);
         }
         return files;
@@ -15,33 +15,49 @@ import org.mongeez.commands.Script;
 import org.mongeez.validation.ValidationException;
 import org.springframework.core.io.Resource;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Reads javascript change files with a comment header per changeset:
+ * <pre>
+ * //mongeez formatted javascript
+ * //changeset author:id runAlways:true parallel:true dependsOn:id1,id2 collections:name1,name2 contexts:ctx1,ctx2
+ * </pre>
+ * Files are scanned by hand rather than with regular expressions, only decoding lines starting with a line comment. The
+ * scanner accepts the same headers as the patterns it replaces: attribute names are case insensitive, and when one is
+ * repeated, its last occurrence wins. Unless the charset isn't ASCII compatible or the resource can only be read once,
+ * scripts are not kept but read from their byte range of the file when needed. Files ending with .js.gz are
+ * decompressed as they are read.
+ */
 public class FormattedJavascriptChangeSetReader implements ChangeSetReader {
     private static final String LINE_COMMENT = "//";
     private static final String FILE_HEADER = "mongeez formatted javascript";
-    private static final Pattern FILE_HEADER_PATTERN =
-            Pattern.compile("//\\s*mongeez\\s+formatted\\s+javascript\\s*",
-                    Pattern.CASE_INSENSITIVE);
-    private static final Pattern CHANGESET_PATTERN =
-            Pattern.compile("//\\s*changeset\\s+([\\w\\-]+):([\\w\\-]+).*",
-                    Pattern.CASE_INSENSITIVE);
-    private static final Pattern ATTRIBUTE_RUN_ALWAYS_PATTERN =
-            Pattern.compile(".*runAlways:(\\w+).*",
-                    Pattern.CASE_INSENSITIVE);
-    private static final Pattern ATTRIBUTE_CONTEXTS_PATTERN =
-            Pattern.compile(".*contexts:([\\w]+(?:, *[\\w]+)*).*",
-                    Pattern.CASE_INSENSITIVE);
+    private static final String[] FILE_HEADER_WORDS = FILE_HEADER.split(" ");
+
+    /**
+     * Files from this size are memory mapped rather than copied to the heap before being decoded
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int WORD = 0;
+    private static final int ID = 1;
+    private static final int COLLECTION = 2;
 
     private final Charset cs;
+    private final boolean asciiCompatible;
 
     public FormattedJavascriptChangeSetReader() {
         this(Charset.forName("UTF-8"));
@@ -49,11 +65,16 @@ public class FormattedJavascriptChangeSetReader implements ChangeSetReader {
 
     public FormattedJavascriptChangeSetReader(Charset cs) {
         this.cs = cs;
+        this.asciiCompatible = isAsciiCompatible(cs);
+    }
+
+    Charset getCharset() {
+        return cs;
     }
 
     @Override
     public boolean supports(Resource file) {
-        return file.getFilename().endsWith(".js");
+        return file.getFilename().endsWith(".js") || file.getFilename().endsWith(".js.gz");
     }
 
     @Override
@@ -72,51 +93,232 @@ public class FormattedJavascriptChangeSetReader implements ChangeSetReader {
     }
 
     private List<ChangeSet> parse(Resource file) throws IOException, ParseException {
-        List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-                file.getInputStream(), cs));
-        try {
-            String line = reader.readLine();
-            parseFileHeader(file, line);
-            ChangeSet changeSet = null;
-            StringBuilder scriptBody = null;
-            line = reader.readLine();
-            while (line != null) {
-                ChangeSet newChangeSet = parseChangeSetStart(line);
-                if (newChangeSet != null) {
-                    addScriptToChangeSet(changeSet, scriptBody);
-                    changeSet = newChangeSet;
-                    scriptBody = new StringBuilder();
-                    ChangeSetReaderUtil.populateChangeSetResourceInfo(changeSet, file);
-                    changeSets.add(changeSet);
-                } else if (scriptBody != null) {
-                    scriptBody.append(line);
-                    scriptBody.append('\n');
-                } else if (!line.trim().isEmpty() && !line.startsWith(LINE_COMMENT)) {
-                    throw new ParseException(file + " has content outside of a changeset.  " +
-                            "To start a changeset, add a comment in the format:\n" +
-                            LINE_COMMENT + "changeset author:id", 0);
-                } // Silently ignore whitespace-only and comment-only lines
-                line = reader.readLine();
-            }
-            addScriptToChangeSet(changeSet, scriptBody);
-        } finally {
-            try {
-                reader.close();
-            } catch(IOException ignore) {}
+        Scanner scanner;
+        if (!asciiCompatible) {
+            // lines can't be found in the original bytes, so scan them in UTF-8 instead
+            scanner = new Scanner(file, StandardCharsets.UTF_8, false);
+            scanner.scan(StandardCharsets.UTF_8.encode(decode(ByteBuffer.wrap(readFully(file)), cs)));
+        } else {
+            // files on disk keep byte ranges of their scripts instead of the scripts themselves; other resources, such
+            // as jar entries and compressed files, could only be read again from their start for every script
+            File path = ChangeSetReaderUtil.getFile(file);
+            scanner = new Scanner(file, cs, path != null);
+            if (path != null) {
+                scanner.scan(readBytes(path));
+            } else {
+                try (InputStream in = ChangeSetReaderUtil.openStream(file)) {
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        scanner.scan(ByteBuffer.wrap(buffer, 0, read));
+                    }
+                }
+            }
         }
-        return changeSets;
+        return scanner.finish();
     }
 
-    private void addScriptToChangeSet(ChangeSet changeSet, StringBuilder scriptBody) throws ParseException {
-        if (changeSet != null) {
-            String body = scriptBody.toString();
-            if (body.trim().isEmpty()) {
-                throw new ParseException("No JavaScript found for changeset " + toString(changeSet), -1);
+    /**
+     * Reads the whole file at once; files from {@link #MAP_THRESHOLD} are mapped instead of copied to the heap
+     */
+    private ByteBuffer readBytes(File path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // until the whole file is read
+            }
+            bytes.flip();
+            return bytes;
+        }
+    }
+
+    private byte[] readFully(Resource file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream in = ChangeSetReaderUtil.openStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes replacing malformed input, as a reader would
+     */
+    private static String decode(ByteBuffer bytes, Charset charset) {
+        return charset.decode(bytes).toString();
+    }
+
+    /**
+     * @return whether the charset encodes ASCII as single bytes which can't be part of other characters, so that line
+     * breaks and comments can be found without decoding
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        return new String(ascii, StandardCharsets.US_ASCII).equals(new String(ascii, charset));
+    }
+
+    /**
+     * Splits the bytes of a change file into lines as they are fed, in chunks of any size, and turns them into
+     * changesets. Lines end at \n, \r or \r\n. Only the file header and lines starting with a line comment are kept
+     * until their end, along with every script line when scripts are not read lazily.
+     */
+    private class Scanner {
+        private static final long PENDING = -1;
+
+        private final Resource file;
+        private final Charset charset;
+        private final boolean lazy;
+        private final List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+
+        private long position = 0;
+        private boolean previousCR = false;
+        private boolean firstLine = true;
+
+        private boolean inLine = false;
+        private long lineStart;
+        private int lineLength;
+        private boolean lineBlank;
+        private boolean comment;
+        private boolean keepLine;
+        private byte[] line = new byte[256];
+        private int keptLength;
+
+        private ChangeSet changeSet = null;
+        private long scriptStart;
+        private boolean scriptBlank;
+        private final ByteArrayOutputStream script = new ByteArrayOutputStream();
+
+        Scanner(Resource file, Charset charset, boolean lazy) {
+            this.file = file;
+            this.charset = charset;
+            this.lazy = lazy;
+        }
+
+        void scan(ByteBuffer bytes) throws IOException, ParseException {
+            int end = bytes.limit();
+            for (int i = bytes.position(); i < end; i++, position++) {
+                byte b = bytes.get(i);
+                if (previousCR) {
+                    previousCR = false;
+                    if (b == '\n') {
+                        continue;
+                    }
+                }
+                if (!inLine) {
+                    startLine();
+                }
+                if (b == '\n' || b == '\r') {
+                    previousCR = b == '\r';
+                    endLine();
+                    continue;
+                }
+                lineLength++;
+                // bytes from 0 to space are the characters String.trim() removes, and never part of other characters
+                if ((b & 0xff) > ' ') {
+                    lineBlank = false;
+                }
+                if (keepLine) {
+                    keep(b);
+                    if (lineLength == 2) {
+                        comment = line[0] == '/' && line[1] == '/';
+                        keepLine = firstLine || comment || !lazy;
+                    }
+                }
+            }
+        }
+
+        List<ChangeSet> finish() throws IOException, ParseException {
+            if (inLine) {
+                endLine();
+            }
+            if (firstLine) {
+                parseFileHeader(file, null);
+            }
+            if (scriptStart == PENDING) {
+                scriptStart = position;
+            }
+            addScriptToChangeSet(position);
+            return changeSets;
+        }
+
+        private void startLine() {
+            inLine = true;
+            lineStart = position;
+            lineLength = 0;
+            lineBlank = true;
+            comment = false;
+            keepLine = true;
+            keptLength = 0;
+            if (changeSet != null && scriptStart == PENDING) {
+                scriptStart = position;
+            }
+        }
+
+        private void keep(byte b) {
+            if (keptLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[keptLength++] = b;
+        }
+
+        private void endLine() throws IOException, ParseException {
+            inLine = false;
+            if (firstLine) {
+                firstLine = false;
+                parseFileHeader(file, new String(line, 0, keptLength, charset));
+                return;
+            }
+            ChangeSet newChangeSet = comment ? parseChangeSetStart(new String(line, 0, keptLength, charset)) : null;
+            if (newChangeSet != null) {
+                addScriptToChangeSet(lineStart);
+                changeSet = newChangeSet;
+                scriptStart = PENDING;
+                scriptBlank = true;
+                script.reset();
+                ChangeSetReaderUtil.populateChangeSetResourceInfo(changeSet, file);
+                changeSets.add(changeSet);
+            } else if (changeSet != null) {
+                scriptBlank &= lineBlank;
+                if (!lazy) {
+                    script.write(line, 0, keptLength);
+                    script.write('\n');
+                }
+            } else if (!lineBlank && !comment) {
+                throw new ParseException(file + " has content outside of a changeset.  " +
+                        "To start a changeset, add a comment in the format:\n" +
+                        LINE_COMMENT + "changeset author:id", 0);
+            } // Silently ignore whitespace-only and comment-only lines
+        }
+
+        private void addScriptToChangeSet(long scriptEnd) throws ParseException {
+            if (changeSet != null) {
+                if (scriptBlank) {
+                    throw new ParseException("No JavaScript found for changeset " + FormattedJavascriptChangeSetReader.this.toString(changeSet), -1);
+                }
+                Script command = new Script();
+                if (lazy) {
+                    command.setSource(new ResourceRangeScriptSource(file, charset, scriptStart, scriptEnd - scriptStart));
+                } else {
+                    command.setBody(new String(script.toByteArray(), charset));
+                }
+                changeSet.add(command);
             }
-            Script script = new Script();
-            script.setBody(body);
-            changeSet.add(script);
         }
     }
 
@@ -125,39 +327,156 @@ public class FormattedJavascriptChangeSetReader implements ChangeSetReader {
     }
 
     private void parseFileHeader(Resource file, String line) throws IOException, ParseException {
-        if (line == null || !FILE_HEADER_PATTERN.matcher(line).matches()) {
+        if (line == null || !isFileHeader(line)) {
             throw new ParseException(file.getFile().getPath() +
                     " did not begin with the expected comment:\n" +
                     LINE_COMMENT + FILE_HEADER, -1);
         }
     }
 
+    /**
+     * @return whether the line is {@code //mongeez formatted javascript}, with any spacing
+     */
+    private static boolean isFileHeader(String line) {
+        if (!line.startsWith(LINE_COMMENT)) {
+            return false;
+        }
+        int position = skipSpaces(line, LINE_COMMENT.length());
+        for (int i = 0; i < FILE_HEADER_WORDS.length; i++) {
+            if (i > 0) {
+                int wordStart = skipSpaces(line, position);
+                if (wordStart == position) {
+                    return false;
+                }
+                position = wordStart;
+            }
+            if (!regionMatchesIgnoreCase(line, position, FILE_HEADER_WORDS[i])) {
+                return false;
+            }
+            position += FILE_HEADER_WORDS[i].length();
+        }
+        return skipSpaces(line, position) == line.length();
+    }
+
+    /**
+     * Parses {@code //changeset author:id} and the attributes after it
+     * @return the changeset, or null if the line isn't a changeset header
+     */
     private ChangeSet parseChangeSetStart(String line) {
-        ChangeSet changeSet = null;
-        Matcher changeSetMatcher = CHANGESET_PATTERN.matcher(line);
-        if (changeSetMatcher.matches()) {
-            changeSet = new ChangeSet();
-            changeSet.setAuthor(changeSetMatcher.group(1));
-            changeSet.setChangeId(changeSetMatcher.group(2));
-            changeSet.setRunAlways(parseAttribute(ATTRIBUTE_RUN_ALWAYS_PATTERN.matcher(line), false));
-            changeSet.setContexts(parseAttributeString(ATTRIBUTE_CONTEXTS_PATTERN.matcher(line)));
+        int position = skipSpaces(line, LINE_COMMENT.length());
+        if (!regionMatchesIgnoreCase(line, position, "changeset")) {
+            return null;
+        }
+        int authorStart = skipSpaces(line, position + "changeset".length());
+        if (authorStart == position + "changeset".length()) {
+            return null;
+        }
+        int authorEnd = skip(line, authorStart, ID);
+        if (authorEnd == authorStart || authorEnd == line.length() || line.charAt(authorEnd) != ':') {
+            return null;
+        }
+        int idEnd = skip(line, authorEnd + 1, ID);
+        if (idEnd == authorEnd + 1) {
+            return null;
         }
+
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.setAuthor(line.substring(authorStart, authorEnd));
+        changeSet.setChangeId(line.substring(authorEnd + 1, idEnd));
+        changeSet.setRunAlways(parseAttribute(line, "runAlways:", false));
+        changeSet.setParallel(parseAttribute(line, "parallel:", false));
+        changeSet.setDependsOn(parseAttributeList(line, "dependsOn:", ID));
+        changeSet.setCollections(parseAttributeList(line, "collections:", COLLECTION));
+        changeSet.setContexts(parseAttributeList(line, "contexts:", WORD));
         return changeSet;
     }
 
-    private boolean parseAttribute(Matcher attributeMatcher, boolean defaultValue) {
-        boolean attributeValue = defaultValue;
-        if (attributeMatcher.matches()) {
-            attributeValue = Boolean.parseBoolean(attributeMatcher.group(1));
+    private boolean parseAttribute(String line, String name, boolean defaultValue) {
+        int valueStart = findAttributeValue(line, name, WORD);
+        if (valueStart < 0) {
+            return defaultValue;
         }
-        return attributeValue;
+        return Boolean.parseBoolean(line.substring(valueStart, skip(line, valueStart, WORD)));
     }
 
-    private String parseAttributeString(Matcher attributeMatcher) {
-        if (attributeMatcher.matches()) {
-            return attributeMatcher.group(1);
+    /**
+     * @return the values of the attribute, separated by commas optionally followed by spaces, or null
+     */
+    private String parseAttributeList(String line, String name, int charClass) {
+        int valueStart = findAttributeValue(line, name, charClass);
+        if (valueStart < 0) {
+            return null;
         }
-        return null;
+        int valueEnd = skip(line, valueStart, charClass);
+        while (valueEnd < line.length() && line.charAt(valueEnd) == ',') {
+            int nextStart = valueEnd + 1;
+            while (nextStart < line.length() && line.charAt(nextStart) == ' ') {
+                nextStart++;
+            }
+            int nextEnd = skip(line, nextStart, charClass);
+            if (nextEnd == nextStart) {
+                break;
+            }
+            valueEnd = nextEnd;
+        }
+        return line.substring(valueStart, valueEnd);
     }
 
+    /**
+     * @return the start of the value of the last occurrence of the attribute having one, or -1
+     */
+    private static int findAttributeValue(String line, String name, int charClass) {
+        for (int i = line.length() - name.length() - 1; i >= 0; i--) {
+            if (regionMatchesIgnoreCase(line, i, name) && isInClass(line.charAt(i + name.length()), charClass)) {
+                return i + name.length();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares ASCII letters regardless of case, leaving other characters as they are
+     */
+    private static boolean regionMatchesIgnoreCase(String line, int position, String expected) {
+        if (position + expected.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            char c = line.charAt(position + i);
+            char e = expected.charAt(i);
+            if (c != e && toLowerCase(c) != toLowerCase(e)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int skipSpaces(String line, int position) {
+        while (position < line.length() && isSpace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static int skip(String line, int position, int charClass) {
+        while (position < line.length() && isInClass(line.charAt(position), charClass)) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isInClass(char c, int charClass) {
+        if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_') {
+            return true;
+        }
+        return charClass == ID && c == '-' || charClass == COLLECTION && (c == '-' || c == '.');
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.mongeez.commands.ScriptSource;
+import org.mongeez.validation.ValidationException;
+import org.springframework.core.io.Resource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The lines of a change file between two byte offsets, read again whenever the script body is needed. Line endings
+ * are normalized to \n, as when the body is read eagerly. Readers only keep ranges of files on disk; should the file
+ * no longer be one, the resource is read again from its start.
+ */
+class ResourceRangeScriptSource implements ScriptSource {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Resource resource;
+    private final Charset charset;
+    private final long offset;
+    private final long length;
+
+    ResourceRangeScriptSource(Resource resource, Charset charset, long offset, long length) {
+        this.resource = resource;
+        this.charset = charset;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String load() {
+        StringBuilder body = new StringBuilder((int) Math.min(length + 1, Integer.MAX_VALUE));
+        char[] buffer = new char[(int) Math.min(length + 1, BUFFER_SIZE)];
+        try (Reader reader = open()) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new ValidationException("Unable to read script of " + resource.getDescription(), e);
+        }
+        return body.toString();
+    }
+
+    @Override
+    public Reader open() throws IOException {
+        InputStream in;
+        File file = ChangeSetReaderUtil.getFile(resource);
+        if (file != null) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                in = Channels.newInputStream(channel.position(offset));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } else {
+            in = ChangeSetReaderUtil.openStream(resource);
+            try {
+                skip(in, offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return new LineEndingReader(new InputStreamReader(new RangeInputStream(in, length), charset));
+    }
+
+    private void skip(InputStream in, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long skip = in.skip(count - skipped);
+            if (skip <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException(resource.getDescription() + " is shorter than when it was read");
+                }
+                skip = 1;
+            }
+            skipped += skip;
+        }
+    }
+
+    /**
+     * The given number of bytes of a stream, failing if the stream ends before them
+     */
+    private class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException(resource.getDescription() + " is shorter than when it was read");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Turns \r\n and \r into \n, and ends the last line with \n if it isn't
+     */
+    static class LineEndingReader extends FilterReader {
+        private boolean previousCR = false;
+        private boolean empty = true;
+        private char last;
+        private boolean ended = false;
+
+        LineEndingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] c = new char[1];
+            return read(c, 0, 1) < 0 ? -1 : c[0];
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!ended) {
+                int read = in.read(cbuf, off, len);
+                if (read < 0) {
+                    ended = true;
+                    if (!empty && last != '\n') {
+                        cbuf[off] = '\n';
+                        return 1;
+                    }
+                    return -1;
+                }
+                int count = 0;
+                for (int i = 0; i < read; i++) {
+                    char c = cbuf[off + i];
+                    if (c == '\n' && previousCR) {
+                        previousCR = false;
+                        continue;
+                    }
+                    previousCR = c == '\r';
+                    cbuf[off + count++] = previousCR ? '\n' : c;
+                }
+                if (count > 0) {
+                    empty = false;
+                    last = cbuf[off + count - 1];
+                    return count;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            char[] buffer = new char[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -14,36 +14,30 @@
 package org.mongeez.reader;
 
 import org.mongeez.commands.ChangeSet;
-import org.mongeez.commands.ChangeSetList;
 import org.mongeez.commands.Script;
 import org.mongeez.validation.ValidationException;
-import org.apache.commons.digester3.Digester;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Reads {@code mongoChangeLog} files with a pull parser, one changeset at a time. As with the digester rules it
+ * replaces, attributes without a matching changeset property are ignored, and script bodies are trimmed. Files ending
+ * with .gz are decompressed as they are read.
+ */
 public class XmlChangeSetReader implements ChangeSetReader {
     private static final Logger logger = LoggerFactory.getLogger(XmlChangeSetReader.class);
 
-    private Digester digester;
-
     XmlChangeSetReader() {
-        digester = new Digester();
-
-        digester.setValidating(false);
-
-        digester.addObjectCreate("mongoChangeLog", ChangeSetList.class);
-        digester.addObjectCreate("mongoChangeLog/changeSet", ChangeSet.class);
-        digester.addSetProperties("mongoChangeLog/changeSet");
-        digester.addSetNext("mongoChangeLog/changeSet", "add");
-
-        digester.addObjectCreate("mongoChangeLog/changeSet/script", Script.class);
-        digester.addBeanPropertySetter("mongoChangeLog/changeSet/script", "body");
-        digester.addSetNext("mongoChangeLog/changeSet/script", "add");
     }
 
     @Override
@@ -55,23 +49,144 @@ public class XmlChangeSetReader implements ChangeSetReader {
     public List<ChangeSet> getChangeSets(Resource file) {
         List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
 
-        try {
-            logger.info("Parsing XML Change Set File {}", file.getFilename());
-            ChangeSetList changeFileSet = (ChangeSetList) digester.parse(file.getInputStream());
-            if (changeFileSet == null) {
+        logger.info("Parsing XML Change Set File {}", file.getFilename());
+        try (ChangeSetStream stream = new ChangeSetStream(file)) {
+            if (!stream.isChangeLog()) {
                 logger.warn("Ignoring change file {}, the parser returned null. Please check your formatting.", file.getFilename());
             }
-            else {
-                for (ChangeSet changeSet : changeFileSet.getList()) {
-                    ChangeSetReaderUtil.populateChangeSetResourceInfo(changeSet, file);
-                }
-                changeSets.addAll(changeFileSet.getList());
+            ChangeSet changeSet;
+            while ((changeSet = stream.next()) != null) {
+                ChangeSetReaderUtil.populateChangeSetResourceInfo(changeSet, file);
+                changeSets.add(changeSet);
             }
         } catch (IOException e) {
-        	throw new ValidationException(e);
-        } catch (org.xml.sax.SAXException e) {
-        	throw new ValidationException(e);
+            throw new ValidationException(e);
         }
         return changeSets;
     }
+
+    /**
+     * The changesets of a change file, parsed as they are asked for
+     */
+    static class ChangeSetStream implements Closeable {
+        private final InputStream in;
+        private final XMLStreamReader reader;
+        private final boolean changeLog;
+        private final StringBuilder body = new StringBuilder();
+
+        ChangeSetStream(Resource file) throws IOException {
+            in = ChangeSetReaderUtil.openStream(file);
+            try {
+                reader = XmlStreams.createReader(in);
+                changeLog = XmlStreams.nextElement(reader) && "mongoChangeLog".equals(reader.getLocalName());
+            } catch (XMLStreamException e) {
+                in.close();
+                throw new ValidationException(e);
+            } catch (RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return whether the file is a {@code mongoChangeLog}; other files have no changesets
+         */
+        boolean isChangeLog() {
+            return changeLog;
+        }
+
+        /**
+         * @return the next changeset of the file, or null after the last one
+         */
+        ChangeSet next() {
+            if (!changeLog) {
+                return null;
+            }
+            try {
+                // children of the change log, skipping anything but changesets
+                while (XmlStreams.nextChildElement(reader)) {
+                    if ("changeSet".equals(reader.getLocalName())) {
+                        return readChangeSet();
+                    }
+                    XmlStreams.skipElement(reader);
+                }
+                return null;
+            } catch (XMLStreamException e) {
+                throw new ValidationException(e);
+            }
+        }
+
+        private ChangeSet readChangeSet() throws XMLStreamException {
+            ChangeSet changeSet = new ChangeSet();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                setAttribute(changeSet, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+            while (XmlStreams.nextChildElement(reader)) {
+                if ("script".equals(reader.getLocalName())) {
+                    Script script = new Script();
+                    script.setBody(readBody());
+                    changeSet.add(script);
+                } else {
+                    XmlStreams.skipElement(reader);
+                }
+            }
+            return changeSet;
+        }
+
+        /**
+         * Reads the text directly inside the current element, up to its end
+         */
+        private String readBody() throws XMLStreamException {
+            body.setLength(0);
+            int depth = 0;
+            while (true) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth-- == 0) {
+                        return body.toString().trim();
+                    }
+                } else if (depth == 0 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE)) {
+                    body.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        }
+
+        private void setAttribute(ChangeSet changeSet, String name, String value) {
+            if ("changeId".equals(name)) {
+                changeSet.setChangeId(value);
+            } else if ("author".equals(name)) {
+                changeSet.setAuthor(value);
+            } else if ("file".equals(name)) {
+                changeSet.setFile(value);
+            } else if ("resourcePath".equals(name)) {
+                changeSet.setResourcePath(value);
+            } else if ("contexts".equals(name)) {
+                changeSet.setContexts(value);
+            } else if ("dependsOn".equals(name)) {
+                changeSet.setDependsOn(value);
+            } else if ("collections".equals(name)) {
+                changeSet.setCollections(value);
+            } else if ("runAlways".equals(name)) {
+                changeSet.setRunAlways(XmlStreams.parseBoolean(name, value));
+            } else if ("failOnError".equals(name)) {
+                changeSet.setFailOnError(XmlStreams.parseBoolean(name, value));
+            } else if ("parallel".equals(name)) {
+                changeSet.setParallel(XmlStreams.parseBoolean(name, value));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                logger.debug("Unable to close the XML reader", e);
+            } finally {
+                in.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.mongeez.validation.ValidationException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * Helpers for reading mongeez XML files with a pull parser
+ */
+final class XmlStreams {
+    /**
+     * XMLInputFactory isn't guaranteed to be thread safe, and change files may be parsed on several threads at once
+     */
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return createFactory();
+        }
+    };
+
+    private XmlStreams() {
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Creates a reader detecting the encoding from the XML declaration
+     */
+    static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        return FACTORY.get().createXMLStreamReader(in);
+    }
+
+    /**
+     * Moves to the next start element, whatever its depth
+     * @return false at the end of the document
+     */
+    static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next child of the element being read
+     * @return false once the reader is at the end of that element
+     */
+    static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the end of the element the reader is at the start of
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT && depth-- == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses boolean attributes the way the digester rules did
+     */
+    static boolean parseBoolean(String name, String value) {
+        String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed) || "yes".equalsIgnoreCase(trimmed) || "y".equalsIgnoreCase(trimmed)
+                || "on".equalsIgnoreCase(trimmed) || "1".equals(trimmed)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(trimmed) || "no".equalsIgnoreCase(trimmed) || "n".equalsIgnoreCase(trimmed)
+                || "off".equalsIgnoreCase(trimmed) || "0".equals(trimmed)) {
+            return false;
+        }
+        throw new ValidationException("Invalid value '" + value + "' for attribute " + name);
+    }
+}
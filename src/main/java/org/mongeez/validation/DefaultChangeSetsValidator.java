@@ -11,6 +11,7 @@ public class DefaultChangeSetsValidator implements ChangeSetsValidator {
     @Override
     public void validate(List<ChangeSet> changesets) throws ValidationException {
         changeSetIdsNotUnique(changesets);
+        dependenciesNotDeclaredBefore(changesets);
     }
 
     private void changeSetIdsNotUnique(List<ChangeSet> changeSets) {
@@ -22,4 +23,20 @@ public class DefaultChangeSetsValidator implements ChangeSetsValidator {
             idSet.add(changeSet.getChangeId());
         }
     }
+
+    /**
+     * Changesets may only depend on changesets declared before them, which also rules out cycles
+     */
+    private void dependenciesNotDeclaredBefore(List<ChangeSet> changeSets) {
+        Set<String> idSet = new HashSet<String>();
+        for (ChangeSet changeSet : changeSets) {
+            for (String dependency : changeSet.getDependsOnIds()) {
+                if (!idSet.contains(dependency)) {
+                    throw new ValidationException("ChangeSet " + changeSet.getChangeId() + " depends on " + dependency
+                            + ", which is not declared before it.");
+                }
+            }
+            idSet.add(changeSet.getChangeId());
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package org.mongeez.validation;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+import org.mongeez.dao.MongoDriverScriptExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Explains the queries of changesets written as command documents against the target database before they run, and
+ * reports the ones which would scan a whole collection of at least {@link #setMinCollectionDocuments(long) some size},
+ * or sort in memory, as to catch a changeset missing an index when validating against a copy of the database.
+ * <p>
+ * The find, update, delete, findAndModify, count, distinct and aggregate commands are explained with the query planner
+ * only, so nothing is written. Scripts which aren't command documents, such as mongo shell scripts, are left out
+ * without being loaded, as are {@link Script#isLarge() large} scripts.
+ * Other checks are left to the validator it wraps.
+ * @see MongoDriverScriptExecutor
+ */
+public class ExplainChangeSetsValidator implements ChangeSetsValidator {
+    private static final Logger logger = LoggerFactory.getLogger(ExplainChangeSetsValidator.class);
+
+    private static final String DATABASE_FIELD = "$db";
+    private static final Set<String> EXPLAINABLE_COMMANDS = new LinkedHashSet<String>(Arrays.asList(
+            "find", "update", "delete", "findAndModify", "count", "distinct", "aggregate"));
+
+    static final String COLLECTION_SCAN = "COLLSCAN";
+    static final String IN_MEMORY_SORT = "SORT";
+
+    private final MongoClient client;
+    private final String dbName;
+    private final ChangeSetsValidator delegate;
+    private final MongoDriverScriptExecutor parser;
+    private long minCollectionDocuments = 1000;
+    private boolean failOnProblems = true;
+
+    public ExplainChangeSetsValidator(MongoClient client, String dbName) {
+        this(client, dbName, new DefaultChangeSetsValidator());
+    }
+
+    public ExplainChangeSetsValidator(MongoClient client, String dbName, ChangeSetsValidator delegate) {
+        this.client = client;
+        this.dbName = dbName;
+        this.delegate = delegate;
+        this.parser = new MongoDriverScriptExecutor(client, dbName);
+    }
+
+    /**
+     * Sets how many documents a collection holds at least for scanning it whole to be reported; defaults to 1000
+     */
+    public void setMinCollectionDocuments(long minCollectionDocuments) {
+        this.minCollectionDocuments = minCollectionDocuments;
+    }
+
+    /**
+     * Sets whether the problems found fail the validation, or are only logged; defaults to true
+     */
+    public void setFailOnProblems(boolean failOnProblems) {
+        this.failOnProblems = failOnProblems;
+    }
+
+    @Override
+    public void validate(List<ChangeSet> changeSets) throws ValidationException {
+        delegate.validate(changeSets);
+
+        List<String> problems = new ArrayList<String>();
+        for (ChangeSet changeSet : changeSets) {
+            for (Script script : changeSet.getCommands()) {
+                if (script.isLarge() || !isCommandDocument(script)) {
+                    logger.debug("Not explaining ChangeSet {}, its script is large or not made of command documents",
+                            changeSet.getChangeId());
+                    continue;
+                }
+                List<Document> commands;
+                try {
+                    commands = parser.parseCommands(script.getBody());
+                } catch (RuntimeException e) {
+                    logger.debug("Not explaining ChangeSet {}, its script is not made of command documents",
+                            changeSet.getChangeId());
+                    continue;
+                }
+                for (Document command : commands) {
+                    for (String problem : explain(command)) {
+                        problems.add("ChangeSet " + changeSet.getChangeId() + " in " + changeSet.getFile() + ": "
+                                + problem);
+                    }
+                }
+            }
+        }
+        if (problems.isEmpty()) {
+            return;
+        }
+        if (failOnProblems) {
+            throw new ValidationException("Changesets with inefficient query plans:\n" + join(problems));
+        }
+        logger.warn("Changesets with inefficient query plans:\n" + join(problems));
+    }
+
+    /**
+     * Reads the body up to its first character which isn't blank, so that other scripts are never loaded whole
+     */
+    static boolean isCommandDocument(Script script) {
+        if (script.getSource() == null && script.getBody() == null) {
+            return false;
+        }
+        try (Reader body = script.openBody()) {
+            int c = body.read();
+            while (c != -1 && Character.isWhitespace(c)) {
+                c = body.read();
+            }
+            return c == '{' || c == '[';
+        } catch (IOException e) {
+            throw new ValidationException(e);
+        }
+    }
+
+    private List<String> explain(Document command) {
+        Object commandDbName = command.remove(DATABASE_FIELD);
+        MongoDatabase db = client.getDatabase(commandDbName != null ? commandDbName.toString() : dbName);
+        List<String> problems = new ArrayList<String>();
+        for (Document explainable : toExplainable(command)) {
+            String name = explainable.keySet().iterator().next();
+            Object collection = explainable.get(name);
+            Document plan;
+            try {
+                plan = db.runCommand(new Document("explain", explainable).append("verbosity", "queryPlanner"));
+            } catch (MongoException e) {
+                logger.warn("Unable to explain " + explainable.toJson() + ": " + e.getMessage());
+                continue;
+            }
+            Set<String> planProblems = findPlanProblems(plan);
+            if (planProblems.contains(COLLECTION_SCAN) && collection instanceof String) {
+                long documents = db.getCollection((String) collection).estimatedDocumentCount();
+                if (documents >= minCollectionDocuments) {
+                    problems.add(name + " scans all " + documents + " documents of " + db.getName() + "."
+                            + collection + ": " + explainable.toJson());
+                }
+            }
+            if (planProblems.contains(IN_MEMORY_SORT)) {
+                problems.add(name + " sorts in memory: " + explainable.toJson());
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Splits update and delete commands into single statements, which is all explain takes
+     * @return the commands to explain, none if the command doesn't query documents
+     */
+    static List<Document> toExplainable(Document command) {
+        String name = command.keySet().iterator().next();
+        if (!EXPLAINABLE_COMMANDS.contains(name)) {
+            return Collections.emptyList();
+        }
+        String statements = name.equals("update") ? "updates" : name.equals("delete") ? "deletes" : null;
+        if (statements == null || !(command.get(statements) instanceof List)) {
+            return Collections.singletonList(command);
+        }
+        List<Document> explainable = new ArrayList<Document>();
+        for (Object statement : (List<?>) command.get(statements)) {
+            Document single = new Document(command);
+            single.put(statements, Collections.singletonList(statement));
+            explainable.add(single);
+        }
+        return explainable;
+    }
+
+    /**
+     * Looks through the winning plans of an explain result, including those of each shard, and the stages of an
+     * aggregation, leaving out the plans that were rejected
+     * @return {@link #COLLECTION_SCAN} and {@link #IN_MEMORY_SORT} as found
+     */
+    static Set<String> findPlanProblems(Document explain) {
+        Set<String> problems = new LinkedHashSet<String>();
+        collectPlanProblems(explain, false, problems);
+        return problems;
+    }
+
+    private static void collectPlanProblems(Object value, boolean inWinningPlan, Set<String> problems) {
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                collectPlanProblems(element, inWinningPlan, problems);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> document = (Map<?, ?>) value;
+            if (inWinningPlan) {
+                Object stage = document.get("stage");
+                if (COLLECTION_SCAN.equals(stage) || IN_MEMORY_SORT.equals(stage)) {
+                    problems.add((String) stage);
+                }
+            }
+            if (document.containsKey("$sort")) {
+                // a sort stage of an aggregation which wasn't pushed down to the query
+                problems.add(IN_MEMORY_SORT);
+            }
+            for (Map.Entry<?, ?> entry : document.entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                if (key.equals("rejectedPlans") || key.equals("command") || key.equals("parsedQuery")) {
+                    continue;
+                }
+                collectPlanProblems(entry.getValue(), inWinningPlan || key.equals("winningPlan"), problems);
+            }
+        }
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder joined = new StringBuilder();
+        for (String line : lines) {
+            if (joined.length() > 0) {
+                joined.append('\n');
+            }
+            joined.append(line);
+        }
+        return joined.toString();
+    }
+}
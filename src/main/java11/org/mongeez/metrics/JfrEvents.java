@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder events of the timed phases which are worth seeing next to GC, I/O and thread activity.
+ * This is the only class using the jdk.jfr API. It is compiled for java 11 apart from the other classes, and only
+ * loaded by {@link MetricsTimer} once it has found that API, so that mongeez still builds and runs on java 8.
+ */
+final class JfrEvents implements PhaseEvents {
+
+    JfrEvents() {
+    }
+
+    @Override
+    public Object begin(String name) {
+        PhaseEvent event;
+        if (MetricNames.PARSE.equals(name)) {
+            event = new ParseEvent();
+        } else if (MetricNames.DAO_CONFIGURE.equals(name)) {
+            event = new DaoConfigureEvent();
+        } else if (MetricNames.EXECUTOR_STARTUP.equals(name)) {
+            event = new ExecutorStartupEvent();
+        } else if (MetricNames.SCRIPT_EXECUTION.equals(name)) {
+            event = new ScriptExecutionEvent();
+        } else if (MetricNames.EXECUTION_LOG.equals(name)) {
+            event = new ExecutionLogEvent();
+        } else {
+            return null;
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commit(Object started, String[] tags, long bytes, boolean succeeded) {
+        PhaseEvent event = (PhaseEvent) started;
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            if (MetricNames.CHANGESET_TAG.equals(tags[i])) {
+                event.changeSet = tags[i + 1];
+            } else if (MetricNames.FILE_TAG.equals(tags[i])) {
+                event.file = tags[i + 1];
+            } else if (MetricNames.EXECUTOR_TAG.equals(tags[i])) {
+                event.executor = tags[i + 1];
+            } else if (MetricNames.READER_TAG.equals(tags[i])) {
+                event.reader = tags[i + 1];
+            }
+        }
+        event.bytes = bytes;
+        event.outcome = succeeded ? "success" : "failure";
+        event.commit();
+    }
+
+    @Category("Mongeez")
+    abstract static class PhaseEvent extends Event {
+        @Label("Changeset")
+        String changeSet;
+
+        @Label("File")
+        String file;
+
+        @Label("Executor")
+        String executor;
+
+        @Label("Reader")
+        String reader;
+
+        @Label("Bytes")
+        @Description("Size of the change file or script, -1 if unknown")
+        @DataAmount
+        long bytes;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("org.mongeez.Parse")
+    @Label("Change File Parse")
+    static class ParseEvent extends PhaseEvent {
+    }
+
+    @Name("org.mongeez.DaoConfigure")
+    @Label("Mongeez Collection Configure")
+    static class DaoConfigureEvent extends PhaseEvent {
+    }
+
+    @Name("org.mongeez.ExecutorStartup")
+    @Label("Script Executor Startup")
+    @Description("Starting the script executor, as when spawning mongo shells")
+    static class ExecutorStartupEvent extends PhaseEvent {
+    }
+
+    @Name("org.mongeez.ScriptExecution")
+    @Label("Script Execution")
+    static class ScriptExecutionEvent extends PhaseEvent {
+    }
+
+    @Name("org.mongeez.ExecutionLog")
+    @Label("Execution Record Write")
+    static class ExecutionLogEvent extends PhaseEvent {
+    }
+}
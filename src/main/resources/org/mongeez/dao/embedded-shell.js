@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+// The subset of the mongo shell API available to changesets run by EmbeddedJavascriptScriptExecutor.
+// Values cross into java as extended JSON, and query results come back as extended JSON too.
+(function(global, shim) {
+    function ISODate(value) {
+        return { "$date": value === undefined ? new Date().toISOString() : new Date(value).toISOString() };
+    }
+
+    // Shell types become their extended JSON; other objects which aren't plain would silently become {}, which
+    // turns a query into one matching everything or nothing
+    function toJson(value) {
+        if (value === undefined || value === null) {
+            return null;
+        }
+        return JSON.stringify(value, function(key, v) {
+            var raw = this[key];
+            if (raw instanceof Date) {
+                return { "$date": raw.toISOString() };
+            }
+            if (raw instanceof RegExp) {
+                return { "$regex": raw.source,
+                    "$options": (raw.ignoreCase ? "i" : "") + (raw.multiline ? "m" : "") };
+            }
+            if (typeof raw === "function" || (typeof raw === "object" && raw !== null && !Array.isArray(raw)
+                    && Object.getPrototypeOf(raw) !== Object.prototype)) {
+                throw new TypeError("Unsupported value " + String(raw) + (key ? " of " + key : ""));
+            }
+            return v;
+        });
+    }
+
+    // Reads the documents one at a time once the first one is asked for, so sort, skip and limit can be set before
+    function cursor(c, query, projection) {
+        var sort = null, skip = 0, limit = 0, found = null;
+        function open() {
+            if (found === null) {
+                found = c.find(toJson(query || {}), toJson(projection), toJson(sort), skip, limit);
+            }
+            return found;
+        }
+        var self = {
+            sort: function(value) { sort = value; return self; },
+            skip: function(value) { skip = value; return self; },
+            limit: function(value) { limit = value; return self; },
+            hasNext: function() { return open().hasNext(); },
+            next: function() { return JSON.parse(open().next()); },
+            forEach: function(action) {
+                try {
+                    while (self.hasNext()) {
+                        action(self.next());
+                    }
+                } finally {
+                    self.close();
+                }
+            },
+            map: function(mapper) {
+                var mapped = [];
+                self.forEach(function(doc) { mapped.push(mapper(doc)); });
+                return mapped;
+            },
+            toArray: function() { return self.map(function(doc) { return doc; }); },
+            count: function() { return c.count(toJson(query || {})); },
+            close: function() {
+                if (found !== null) {
+                    found.close();
+                }
+            }
+        };
+        return self;
+    }
+
+    function collection(name) {
+        var c = shim.getCollection(name);
+        var self = {
+            getName: function() { return name; },
+            insert: function(docs) { return { nInserted: c.insert(toJson(docs)) }; },
+            insertOne: function(doc) { return { nInserted: c.insert(toJson(doc)) }; },
+            insertMany: function(docs) { return { nInserted: c.insert(toJson(docs)) }; },
+            save: function(doc) { return { nUpserted: c.save(toJson(doc)) }; },
+            update: function(query, update, upsert, multi) {
+                if (upsert !== null && typeof upsert === "object") {
+                    multi = upsert.multi;
+                    upsert = upsert.upsert;
+                }
+                return { nModified: c.update(toJson(query), toJson(update), !!upsert, !!multi) };
+            },
+            updateOne: function(query, update, options) {
+                return { modifiedCount: c.update(toJson(query), toJson(update), !!(options && options.upsert), false) };
+            },
+            updateMany: function(query, update, options) {
+                return { modifiedCount: c.update(toJson(query), toJson(update), !!(options && options.upsert), true) };
+            },
+            remove: function(query, justOne) {
+                if (justOne !== null && typeof justOne === "object") {
+                    justOne = justOne.justOne;
+                }
+                return { nRemoved: c.remove(toJson(query || {}), !!justOne) };
+            },
+            deleteOne: function(query) { return { deletedCount: c.remove(toJson(query), true) }; },
+            deleteMany: function(query) { return { deletedCount: c.remove(toJson(query), false) }; },
+            find: function(query, projection) { return cursor(c, query, projection); },
+            findOne: function(query, projection) {
+                var docs = cursor(c, query, projection).limit(1).toArray();
+                return docs.length > 0 ? docs[0] : null;
+            },
+            count: function(query) { return c.count(toJson(query || {})); },
+            countDocuments: function(query) { return c.count(toJson(query || {})); },
+            createIndex: function(keys, options) { return c.createIndex(toJson(keys), toJson(options)); },
+            drop: function() { c.drop(); return true; }
+        };
+        self.ensureIndex = self.createIndex;
+        return self;
+    }
+
+    var database = {
+        getName: function() { return String(shim.getName()); },
+        getCollection: collection,
+        runCommand: function(command) {
+            if (typeof command === "string") {
+                var named = {};
+                named[command] = 1;
+                command = named;
+            }
+            return JSON.parse(shim.runCommand(toJson(command)));
+        },
+        dropDatabase: function() { shim.dropDatabase(); return { ok: 1 }; }
+    };
+
+    global.db = new JSAdapter({
+        __get__: function(name) {
+            return database.hasOwnProperty(name) ? database[name] : collection(name);
+        },
+        __call__: function(name) {
+            if (!database.hasOwnProperty(name)) {
+                throw new TypeError("db." + name + " is not a function");
+            }
+            return database[name].apply(database, Array.prototype.slice.call(arguments, 1));
+        }
+    });
+    global.ISODate = ISODate;
+    global.ObjectId = function(hex) { return { "$oid": hex === undefined ? String(shim.newObjectId()) : hex }; };
+    global.NumberLong = function(value) { return { "$numberLong": String(value) }; };
+    global.NumberInt = function(value) { return { "$numberInt": String(value) }; };
+    global.tojson = toJson;
+    global.printjson = function(value) { print(toJson(value)); };
+})(this, __mongeezDatabase);
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+@Test
+public class ChangeLogFingerprintTest {
+    private final Resource first = new ByteArrayResource("//mongeez formatted javascript\n".getBytes(), "first.js");
+    private final Resource second = new ByteArrayResource("//changeset joe:ChangeSet-1\n".getBytes(), "second.js");
+
+    @Test
+    public void testSameChangeLog() throws Exception {
+        assertEquals(ChangeLogFingerprint.compute(Arrays.asList(first, second), "users"),
+                ChangeLogFingerprint.compute(Arrays.asList(first, second), " Users"));
+    }
+
+    @Test
+    public void testDifferentContext() throws Exception {
+        assertNotEquals(ChangeLogFingerprint.compute(Arrays.asList(first, second), "users"),
+                ChangeLogFingerprint.compute(Arrays.asList(first, second), null));
+    }
+
+    @Test
+    public void testDifferentOrder() throws Exception {
+        assertNotEquals(ChangeLogFingerprint.compute(Arrays.asList(first, second), null),
+                ChangeLogFingerprint.compute(Arrays.asList(second, first), null));
+    }
+
+    @Test
+    public void testDifferentContent() throws Exception {
+        Resource changed = new ByteArrayResource("//changeset joe:ChangeSet-2\n".getBytes(), "second.js");
+        assertNotEquals(ChangeLogFingerprint.compute(Arrays.asList(first, second), null),
+                ChangeLogFingerprint.compute(Arrays.asList(first, changed), null));
+    }
+
+    @Test
+    public void testDifferentLocation() throws Exception {
+        assertEquals(ChangeLogFingerprint.compute(Arrays.asList(deploy("first.js"), deploy("second.js")), null),
+                ChangeLogFingerprint.compute(Arrays.asList(deploy("first.js"), deploy("second.js")), null));
+    }
+
+    @Test
+    public void testDifferentName() throws Exception {
+        assertNotEquals(ChangeLogFingerprint.compute(Arrays.asList(deploy("first.js")), null),
+                ChangeLogFingerprint.compute(Arrays.asList(deploy("renamed.js")), null));
+    }
+
+    private Resource deploy(String name) throws Exception {
+        File dir = Files.createTempDirectory("mongeez").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        Files.write(file.toPath(), "//changeset joe:ChangeSet-1\n".getBytes(StandardCharsets.UTF_8));
+        return new FileSystemResource(file);
+    }
+}
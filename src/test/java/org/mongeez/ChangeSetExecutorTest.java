@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+@Test
+public class ChangeSetExecutorTest {
+
+    @Test
+    public void testUtf8LengthMatchesEncoding() throws Exception {
+        String[] texts = {
+                "",
+                "db.user.insert({ \"Name\" : \"Michael Lysaght\" });",
+                "db.user.insert({ \"Name\" : \"Micha\u00ebl Lys\u00e1ght\" });",
+                "\u20ac 100",
+                "\uD83D\uDE00 emoji",
+                "unpaired \uD83D and \uDE00 surrogates",
+                "ends with \uD83D"
+        };
+        for (String text : texts) {
+            assertEquals(ChangeSetExecutor.getUtf8Length(text), text.getBytes(StandardCharsets.UTF_8).length, text);
+        }
+    }
+
+    @Test
+    public void testTempFilePrefix() throws Exception {
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.setChangeId("ChangeSet-1");
+        assertEquals(ChangeSetExecutor.getTempFilePrefix(changeSet), "changeset.ChangeSet-1");
+
+        changeSet.setResourcePath("org/mongeez/changeset1.js");
+        assertEquals(ChangeSetExecutor.getTempFilePrefix(changeSet), "changeset1.ChangeSet-1");
+
+        changeSet.setFile("changeset2.js.gz");
+        assertEquals(ChangeSetExecutor.getTempFilePrefix(changeSet), "changeset2.js.ChangeSet-1");
+
+        File file = File.createTempFile(ChangeSetExecutor.getTempFilePrefix(changeSet), ".js");
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testTempFileIsUtf8() throws Exception {
+        Script script = new Script();
+        script.setBody("db.user.insert({ \"Name\" : \"Micha\u00ebl \u20ac\" });\n");
+        File file = File.createTempFile("changeset", ".js");
+        try {
+            ChangeSetExecutor.writeChangeSetBodyToFile(script, file.getPath());
+            assertEquals(Files.readAllBytes(file.toPath()), script.getBody().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.validation.ValidationException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ChangeSetSchedulerTest {
+
+    @Test
+    public void testOrderedChangeSetsDependOnEverythingBefore() throws Exception {
+        List<Set<Integer>> dependencies = ChangeSetScheduler.getDependencies(Arrays.asList(
+                ordered("1"), parallel("2"), parallel("3"), ordered("4"), parallel("5")));
+
+        assertEquals(dependencies.get(0), set());
+        assertEquals(dependencies.get(1), set(0));
+        assertEquals(dependencies.get(2), set(0));
+        assertEquals(dependencies.get(3), set(0, 1, 2));
+        assertEquals(dependencies.get(4), set(3));
+    }
+
+    @Test
+    public void testDeclaredDependenciesAndCollections() throws Exception {
+        ChangeSet first = collections("1", "user");
+        ChangeSet second = collections("2", "organization");
+        ChangeSet third = collections("3", "user, house");
+        ChangeSet fourth = parallel("4");
+        fourth.setDependsOn("2,missing");
+
+        List<Set<Integer>> dependencies = ChangeSetScheduler.getDependencies(Arrays.asList(first, second, third, fourth));
+
+        assertEquals(dependencies.get(0), set());
+        assertEquals(dependencies.get(1), set());
+        assertEquals(dependencies.get(2), set(0));
+        assertEquals(dependencies.get(3), set(1));
+    }
+
+    @Test(expectedExceptions = ValidationException.class)
+    public void testDependencyDeclaredLaterFails() throws Exception {
+        ChangeSet first = parallel("1");
+        first.setDependsOn("2");
+        ChangeSetScheduler.getDependencies(Arrays.asList(first, parallel("2")));
+    }
+
+    @Test(expectedExceptions = ValidationException.class)
+    public void testDependencyOnItselfFails() throws Exception {
+        ChangeSet first = parallel("1");
+        first.setDependsOn("1");
+        ChangeSetScheduler.getDependencies(Collections.singletonList(first));
+    }
+
+    @Test
+    public void testIndependentChangeSetsRunConcurrently() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+
+        new ChangeSetScheduler(3).execute(Arrays.asList(parallel("1"), parallel("2"), parallel("3"), ordered("4")),
+                new ChangeSetScheduler.ChangeSetAction() {
+                    @Override
+                    public void apply(ChangeSet changeSet) {
+                        if (!changeSet.isOrdered()) {
+                            started.countDown();
+                            await(started);
+                        } else {
+                            assertEquals(started.getCount(), 0);
+                        }
+                    }
+                },
+                record(completed));
+
+        assertEquals(completed, Arrays.asList("1", "2", "3", "4"));
+    }
+
+    @Test
+    public void testCompletedChangeSetsAreReportedInOrder() throws Exception {
+        final CountDownLatch secondCompleted = new CountDownLatch(1);
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+
+        new ChangeSetScheduler(2).execute(Arrays.asList(parallel("1"), parallel("2")),
+                new ChangeSetScheduler.ChangeSetAction() {
+                    @Override
+                    public void apply(ChangeSet changeSet) {
+                        if (changeSet.getChangeId().equals("1")) {
+                            await(secondCompleted);
+                        } else {
+                            secondCompleted.countDown();
+                        }
+                    }
+                },
+                record(completed));
+
+        assertEquals(completed, Arrays.asList("1", "2"));
+    }
+
+    @Test
+    public void testFailureStopsDependentsAndReportsCompleted() throws Exception {
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        ChangeSet dependent = parallel("3");
+        dependent.setDependsOn("1");
+
+        try {
+            new ChangeSetScheduler(2).execute(Arrays.asList(parallel("1"), parallel("2"), dependent),
+                    new ChangeSetScheduler.ChangeSetAction() {
+                        @Override
+                        public void apply(ChangeSet changeSet) {
+                            if (changeSet.getChangeId().equals("1")) {
+                                throw new IllegalStateException("failed");
+                            }
+                        }
+                    },
+                    record(completed));
+            fail("The failure should have been rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "failed");
+        }
+
+        assertEquals(completed, Collections.singletonList("2"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ChangeSetScheduler.ChangeSetAction record(final List<String> completed) {
+        return new ChangeSetScheduler.ChangeSetAction() {
+            @Override
+            public void apply(ChangeSet changeSet) {
+                completed.add(changeSet.getChangeId());
+            }
+        };
+    }
+
+    private static Set<Integer> set(Integer... indexes) {
+        return new HashSet<Integer>(Arrays.asList(indexes));
+    }
+
+    private static ChangeSet ordered(String id) {
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.setChangeId(id);
+        return changeSet;
+    }
+
+    private static ChangeSet parallel(String id) {
+        ChangeSet changeSet = ordered(id);
+        changeSet.setParallel(true);
+        return changeSet;
+    }
+
+    private static ChangeSet collections(String id, String collections) {
+        ChangeSet changeSet = ordered(id);
+        changeSet.setCollections(collections);
+        return changeSet;
+    }
+}
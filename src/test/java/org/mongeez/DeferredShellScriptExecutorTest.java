@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.mongeez.dao.ShellScriptExecutor;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeferredShellScriptExecutorTest {
+
+    @Test
+    public void testCallsWaitForStartup() throws Exception {
+        final CompletableFuture<ShellScriptExecutor> starting = new CompletableFuture<ShellScriptExecutor>();
+        final RecordingExecutor started = new RecordingExecutor();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                starting.complete(started);
+            }
+        }).start();
+
+        DeferredShellScriptExecutor executor = new DeferredShellScriptExecutor(starting);
+        executor.runScript("changeset.js");
+        executor.shutdown();
+
+        assertEquals(started.scripts.get(), 1);
+        assertEquals(started.shutdowns.get(), 1);
+    }
+
+    @Test
+    public void testStartupFailureIsThrownByEveryCall() throws Exception {
+        CompletableFuture<ShellScriptExecutor> starting = new CompletableFuture<ShellScriptExecutor>();
+        MongoException failure = new MongoException("Mongo shell startup failed");
+        starting.completeExceptionally(failure);
+        DeferredShellScriptExecutor executor = new DeferredShellScriptExecutor(starting);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                executor.runScriptBody("db.user.insert({})");
+                fail();
+            } catch (MongoException e) {
+                assertSame(e, failure);
+            }
+        }
+    }
+
+    @Test
+    public void testAwaitWrapsCheckedFailures() throws Exception {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        IOException failure = new IOException("not started");
+        future.completeExceptionally(failure);
+        try {
+            Mongeez.await(future);
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(e.getCause(), failure);
+        }
+    }
+
+    @Test
+    public void testAwaitKeepsInterrupt() throws Exception {
+        Thread.currentThread().interrupt();
+        try {
+            Mongeez.await(new CompletableFuture<String>());
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testFailedStartupShutsDownExecutor() throws Exception {
+        RecordingMongeez mongeez = new RecordingMongeez();
+        // nothing listens on the port, so the mongeez collection can't be configured
+        MongoClient mongoClient = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=100");
+        try {
+            mongeez.setMongoClient(mongoClient);
+            mongeez.setMongeezCollectionDB("test_mongeez");
+            mongeez.setFile(new ClassPathResource("mongeez.xml"));
+            mongeez.setReuseShellScriptExecutor(true);
+            for (int run = 1; run <= 2; run++) {
+                try {
+                    mongeez.process();
+                    fail();
+                } catch (MongoException e) {
+                    // the next run starts over, rather than using the failed startup
+                    assertEquals(mongeez.created.get(), run);
+                    assertEquals(mongeez.started.shutdowns.get(), run);
+                }
+            }
+            assertEquals(mongeez.started.scripts.get(), 0);
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    @Test
+    public void testInterruptedRunShutsDownExecutor() throws Exception {
+        final RecordingMongeez mongeez = new RecordingMongeez();
+        mongeez.startup = new CountDownLatch(1);
+        // the run waits for the mongeez collection to be configured when it is interrupted
+        MongoClient mongoClient = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=10000");
+        try {
+            mongeez.setMongoClient(mongoClient);
+            mongeez.setMongeezCollectionDB("test_mongeez");
+            mongeez.setFile(new ClassPathResource("mongeez.xml"));
+            final Thread run = Thread.currentThread();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // interrupts the run while the shell is still starting, then lets it start
+                        Thread.sleep(100);
+                        run.interrupt();
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    mongeez.startup.countDown();
+                }
+            }).start();
+            try {
+                mongeez.process();
+                fail();
+            } catch (RuntimeException e) {
+                assertTrue(Thread.interrupted());
+            }
+            assertEquals(mongeez.started.shutdowns.get(), 1);
+            assertFalse(Thread.interrupted());
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    private static class RecordingMongeez extends Mongeez {
+        private final RecordingExecutor started = new RecordingExecutor();
+        private final AtomicInteger created = new AtomicInteger();
+        private volatile CountDownLatch startup = new CountDownLatch(0);
+
+        @Override
+        ShellScriptExecutor createShellScriptExecutor() {
+            created.incrementAndGet();
+            try {
+                startup.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return started;
+        }
+    }
+
+    private static class RecordingExecutor implements ShellScriptExecutor {
+        private final AtomicInteger scripts = new AtomicInteger();
+        private final AtomicInteger shutdowns = new AtomicInteger();
+
+        @Override
+        public void runScript(String filePath) {
+            scripts.incrementAndGet();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdowns.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.mongeez.commands.ChangeSet;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@Test
+public class ExecutionListenersTest {
+
+    @Test
+    public void testFailingListenerDoesNotStopOthers() throws Exception {
+        final List<String> events = new ArrayList<String>();
+        ExecutionListener failing = new ExecutionListener() {
+            @Override
+            public void changeSetSkipped(ChangeSet changeSet, SkipReason reason) {
+                throw new IllegalStateException("listener failure");
+            }
+        };
+        ExecutionListener recording = new ExecutionListener() {
+            @Override
+            public void changeSetSkipped(ChangeSet changeSet, SkipReason reason) {
+                events.add(changeSet.getChangeId() + " " + reason);
+            }
+        };
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.setChangeId("ChangeSet-1");
+
+        ExecutionListeners listeners = new ExecutionListeners(Arrays.asList(failing, recording));
+        listeners.changeSetSkipped(changeSet, ExecutionListener.SkipReason.CONTEXT);
+        listeners.runFinished(1, null);
+
+        assertFalse(listeners.isEmpty());
+        assertEquals(events, Collections.singletonList("ChangeSet-1 CONTEXT"));
+    }
+
+    @Test
+    public void testNoListeners() throws Exception {
+        assertTrue(new ExecutionListeners(Collections.<ExecutionListener>emptyList()).isEmpty());
+    }
+}
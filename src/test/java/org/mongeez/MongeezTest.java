@@ -14,16 +14,35 @@
 package org.mongeez;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 import com.mongodb.client.MongoClient;
 
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.dao.ChangeSetExecutionStats;
+import org.mongeez.dao.ExecutionHistoryDao;
+import org.mongeez.dao.MongeezLock;
+import org.mongeez.dao.MongoDriverScriptExecutor;
+import org.mongeez.metrics.InMemoryMetricsRecorder;
+import org.mongeez.metrics.MetricNames;
+import org.mongeez.validation.ExplainChangeSetsValidator;
 import org.mongeez.validation.ValidationException;
 import org.springframework.core.io.ClassPathResource;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 @Test
 public class MongeezTest {
     private String dbName = "test_mongeez";
@@ -60,12 +79,211 @@ public class MongeezTest {
         assertEquals(db.getCollection("user").countDocuments(), 2);
     }
 
+    @Test(groups = "dao")
+    public void testBatchedExecutionLog() throws Exception {
+        Mongeez mongeez = create("mongeez.xml");
+        mongeez.setExecutionLogBatchSize(3);
+        mongeez.process();
+
+        assertEquals(db.getCollection("mongeez").countDocuments(), 5);
+    }
+
     @Test(groups = "dao")
     public void testRunTwice() throws Exception {
         testMongeez();
         testMongeez();
     }
 
+    @Test(groups = "dao")
+    public void testRunTwiceWithSameInstance() throws Exception {
+        Mongeez mongeez = create("mongeez.xml");
+        mongeez.setReuseShellScriptExecutor(true);
+        try {
+            mongeez.process();
+            mongeez.process();
+        } finally {
+            mongeez.shutdown();
+        }
+
+        assertEquals(db.getCollection("mongeez").countDocuments(), 5);
+        assertEquals(db.getCollection("organization").countDocuments(), 2);
+        Document configRecord = db.getCollection("mongeez").find(new Document("type", "configuration")).first();
+        assertEquals(configRecord.getInteger("schemaVersion"), Integer.valueOf(2));
+    }
+
+    @Test(groups = "dao")
+    public void testChangeLogFingerprint() throws Exception {
+        Mongeez mongeez = create("mongeez.xml");
+        mongeez.setChangeLogFingerprintEnabled(true);
+        mongeez.process();
+
+        Document configRecord = db.getCollection("mongeez").find(new Document("type", "configuration")).first();
+        assertNotNull(configRecord.getString("changeLogFingerprint"));
+
+        // the unchanged changelog is skipped as a whole, without noticing the missing execution record
+        db.getCollection("mongeez").deleteOne(new Document("type", "changeSetExecution"));
+        mongeez = create("mongeez.xml");
+        mongeez.setChangeLogFingerprintEnabled(true);
+        mongeez.process();
+        assertEquals(db.getCollection("mongeez").countDocuments(), 4);
+
+        create("mongeez.xml").process();
+        assertEquals(db.getCollection("mongeez").countDocuments(), 5);
+    }
+
+    @Test(groups = "dao")
+    public void testLock() throws Exception {
+        MongeezLock lock = new MongeezLock(mongoClient, dbName, 60000);
+        MongeezLock other = new MongeezLock(mongoClient, dbName, 60000);
+        assertTrue(lock.tryAcquire());
+        assertTrue(lock.tryAcquire());
+        assertFalse(other.tryAcquire());
+        lock.release();
+        assertTrue(other.tryAcquire());
+        other.release();
+
+        Mongeez mongeez = create("mongeez.xml");
+        mongeez.setLockEnabled(true);
+        mongeez.process();
+        assertEquals(db.getCollection("mongeez").countDocuments(new Document("type", "lock")), 0);
+        assertEquals(db.getCollection("mongeez").countDocuments(), 5);
+    }
+
+    @Test(groups = "dao")
+    public void testLockedFirstRun() throws Exception {
+        Mongeez mongeez = create("mongeez.xml");
+        mongeez.setLockEnabled(true);
+        mongeez.process();
+
+        Document configuration = db.getCollection("mongeez").find(new Document("type", "configuration")).first();
+        assertEquals(configuration.getBoolean("supportResourcePath"), Boolean.TRUE);
+        assertEquals(db.getCollection("mongeez").countDocuments(
+                new Document("type", "changeSetExecution").append("resourcePath", "changeset1.xml")), 2);
+    }
+
+    @Test(groups = "dao")
+    public void testCooperativeExecution() throws Exception {
+        // set up the mongeez collection first
+        create("mongeez_empty.xml").process();
+
+        ExecutorService nodes = Executors.newFixedThreadPool(3);
+        List<Future<?>> runs = new ArrayList<Future<?>>();
+        for (int i = 0; i < 3; i++) {
+            final Mongeez mongeez = create("mongeez.xml");
+            mongeez.setCooperativeExecution(true);
+            runs.add(nodes.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mongeez.process();
+                }
+            }));
+        }
+        for (Future<?> run : runs) {
+            run.get();
+        }
+        nodes.shutdown();
+
+        assertEquals(db.getCollection("mongeez").countDocuments(new Document("type", "claim")), 0);
+        assertEquals(db.getCollection("mongeez").countDocuments(new Document("type", "changeSetExecution")), 4);
+    }
+
+    @Test(groups = "dao")
+    public void testMetrics() throws Exception {
+        InMemoryMetricsRecorder metrics = new InMemoryMetricsRecorder();
+        Mongeez mongeez = create("mongeez_commands.xml");
+        mongeez.setShellScriptExecutor(new MongoDriverScriptExecutor(mongoClient, dbName));
+        mongeez.setMetricsRecorder(metrics);
+        mongeez.process();
+
+        assertEquals(metrics.getTimer(MetricNames.FILE_DISCOVERY).getCount(), 1);
+        assertEquals(metrics.getTimer(MetricNames.VALIDATION).getCount(), 1);
+        assertEquals(metrics.getTimer(MetricNames.DAO_CONFIGURE).getCount(), 1);
+        assertEquals(metrics.getTimer(MetricNames.EXECUTION_LOG).getCount(), 2);
+        assertEquals(metrics.getCount(MetricNames.CHANGESETS_EXECUTED,
+                MetricNames.EXECUTOR_TAG, "MongoDriverScriptExecutor"), 2);
+    }
+
+    @Test(groups = "dao")
+    public void testExecutionListener() throws Exception {
+        final List<String> events = new ArrayList<String>();
+        Mongeez mongeez = create("mongeez_commands.xml");
+        mongeez.setShellScriptExecutor(new MongoDriverScriptExecutor(mongoClient, dbName));
+        mongeez.addExecutionListener(new ExecutionListener() {
+            @Override
+            public void changeSetSkipped(ChangeSet changeSet, SkipReason reason) {
+                events.add("skipped " + changeSet.getChangeId() + " " + reason);
+            }
+
+            @Override
+            public void changeSetFinished(ChangeSet changeSet, long nanos) {
+                events.add("finished " + changeSet.getChangeId());
+            }
+
+            @Override
+            public void runFinished(long nanos, Exception failure) {
+                events.add("run finished " + failure);
+            }
+        });
+        mongeez.process();
+        int executed = events.size() - 1;
+        assertEquals(events.get(executed), "run finished null");
+
+        events.clear();
+        mongeez.process();
+        assertEquals(events.size(), executed + 1);
+        assertTrue(events.get(0).endsWith(" EXECUTED"));
+    }
+
+    @Test(groups = "dao")
+    public void testExecutionStats() throws Exception {
+        Mongeez mongeez = create("mongeez_commands.xml");
+        mongeez.setShellScriptExecutor(new MongoDriverScriptExecutor(mongoClient, dbName));
+        mongeez.setReleaseLabel("1.2.0");
+        mongeez.process();
+
+        ExecutionHistoryDao history = new ExecutionHistoryDao(mongoClient, dbName);
+        List<ChangeSetExecutionStats> slowest = history.findSlowestChangeSets(1);
+        assertEquals(slowest.size(), 1);
+        assertTrue(slowest.get(0).getDurationMillis() >= 0);
+        assertEquals(slowest.get(0).getExecutorType(), "MongoDriverScriptExecutor");
+        assertNotNull(slowest.get(0).getHost());
+
+        assertEquals(history.getTotalDurationByRelease().keySet(), Collections.singleton("1.2.0"));
+
+        List<ChangeSetExecutionStats> executions = history.findExecutions("changeset_commands.xml", "ChangeSet-2");
+        assertEquals(executions.size(), 1);
+        assertEquals(executions.get(0).getDocsAffected(), 2);
+        assertTrue(executions.get(0).getScriptBytes() > 0);
+        assertNotNull(executions.get(0).getStartedAt());
+    }
+
+    @Test(groups = "dao")
+    public void testProfilerCapture() throws Exception {
+        int level = db.runCommand(new Document("profile", -1)).getInteger("was");
+        Mongeez mongeez = create("mongeez_commands.xml");
+        mongeez.setShellScriptExecutor(new MongoDriverScriptExecutor(mongoClient, dbName));
+        mongeez.setProfilerSlowMillis(0);
+        mongeez.process();
+
+        List<ChangeSetExecutionStats> executions =
+                new ExecutionHistoryDao(mongoClient, dbName).findExecutions("changeset_commands.xml", "ChangeSet-2");
+        Document profile = executions.get(0).getProfile();
+        assertNotNull(profile);
+        assertTrue(profile.getLong("ops") > 0);
+        assertEquals(db.runCommand(new Document("profile", -1)).getInteger("was").intValue(), level);
+    }
+
+    @Test(groups = "dao", expectedExceptions = ValidationException.class)
+    public void testExplainValidator() throws Exception {
+        db.getCollection("organization").insertOne(new Document("Organization", "10Gen").append("Location", "NYC"));
+        ExplainChangeSetsValidator validator = new ExplainChangeSetsValidator(mongoClient, dbName);
+        validator.setMinCollectionDocuments(1);
+
+        Mongeez mongeez = create("mongeez_commands.xml");
+        mongeez.setChangeSetsValidator(validator);
+        mongeez.process();
+    }
+
     @Test(groups = "dao")
     public void testFailOnError_False() throws Exception {
         assertEquals(db.getCollection("mongeez").countDocuments(), 0);
@@ -149,6 +367,29 @@ public class MongeezTest {
         assertEquals(db.getCollection("house").countDocuments(), 2);
     }
 
+    @Test(groups = "dao")
+    public void testParallelChangeSets() throws Exception {
+        Mongeez mongeez = create("mongeez_parallel.xml");
+        mongeez.setShellPoolSize(2);
+        mongeez.process();
+
+        assertEquals(db.getCollection("mongeez").countDocuments(), 5);
+        assertEquals(db.getCollection("user").countDocuments(), 1);
+        assertEquals(db.getCollection("organization").countDocuments(), 1);
+        assertEquals(db.getCollection("house").countDocuments(), 1);
+        assertEquals(db.getCollection("car").countDocuments(), 1);
+    }
+
+    @Test(groups = "dao")
+    public void testCommandChangeSets() throws Exception {
+        Mongeez mongeez = create("mongeez_commands.xml");
+        mongeez.setShellScriptExecutor(new MongoDriverScriptExecutor(mongoClient, dbName));
+        mongeez.process();
+
+        assertEquals(db.getCollection("mongeez").countDocuments(), 3);
+        assertEquals(db.getCollection("organization").countDocuments(new Document("Location", "NY")), 2);
+    }
+
     @Test(groups = "dao", expectedExceptions = ValidationException.class)
     public void testFailDuplicateIds() throws Exception {
         Mongeez mongeez = create("mongeez_fail_on_duplicate_changeset_ids.xml");
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.MongoException;
+import org.testng.annotations.Test;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AbstractMongoShellScriptExecutorTest {
+    private static final String BODY = "var result = \"double \\\"quotes\\\"\" + ' single \\'quotes\\'';\n" +
+            "result += ' \\\\ backslash \\n' + \"</script><!-- -->\";\r\n" +
+            "result += '\u00eb';\u2028result += ' %s';\r" +
+            "// a comment ending the script";
+
+    @Test
+    public void testScriptBodyCommandIsOneLine() throws Exception {
+        String command = AbstractMongoShellScriptExecutor.getScriptBodyCommand(BODY);
+        assertFalse(command.contains("\n"));
+        assertFalse(command.contains("\r"));
+        assertFalse(command.contains("\u2028"));
+        assertFalse(command.contains("</script>"));
+    }
+
+    @Test
+    public void testScriptBodyCommandRunsBody() throws Exception {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+        assertEquals(engine.eval(AbstractMongoShellScriptExecutor.getScriptBodyCommand(BODY)), Boolean.TRUE);
+        assertEquals(engine.get("result"),
+                "double \"quotes\" single 'quotes' \\ backslash \n</script><!-- -->\u00eb %s");
+    }
+
+    @Test
+    public void testRunScriptBetweenMarkers() throws Exception {
+        FakeMongoShell shell = new FakeMongoShell();
+        shell.print("MongoDB shell version v4.4.29");
+        shell.print("MongoDB server version: 4.4.29");
+        AbstractMongoShellScriptExecutor executor = createExecutor(shell, 10000);
+
+        shell.print("mongeez-script-begin-1");
+        shell.print("true");
+        shell.print("mongeez-script-end-1");
+        executor.runScriptBody("db.user.insert({ \"Name\" : \"Michael Lysaght\" });");
+
+        assertTrue(shell.getCommands().contains("db.user.insert"));
+        assertFalse(shell.isDestroyed());
+    }
+
+    @Test
+    public void testFailedScript() throws Exception {
+        FakeMongoShell shell = new FakeMongoShell();
+        shell.print("MongoDB server version: 4.4.29");
+        AbstractMongoShellScriptExecutor executor = createExecutor(shell, 10000);
+
+        shell.print("mongeez-script-begin-1");
+        shell.print("uncaught exception: ReferenceError: notAFunction is not defined");
+        shell.print("mongeez-script-end-1");
+        try {
+            executor.runScriptBody("notAFunction();");
+            fail();
+        } catch (MongoException e) {
+            assertTrue(e.getMessage().contains("script body"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testStartupTimeout() throws Exception {
+        FakeMongoShell shell = new FakeMongoShell();
+        shell.print("MongoDB shell version v4.4.29");
+        shell.print("connecting to: mongodb://localhost:27017");
+        try {
+            createExecutor(shell, 100);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("connecting to: mongodb://localhost:27017"), e.getMessage());
+        }
+        assertTrue(shell.isDestroyed());
+    }
+
+    @Test
+    public void testShellExitsOnStartup() throws Exception {
+        FakeMongoShell shell = new FakeMongoShell();
+        shell.print("Error: couldn't connect to server");
+        shell.exit();
+        try {
+            createExecutor(shell, 10000);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("startup failed"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMissingEndMarker() throws Exception {
+        FakeMongoShell shell = new FakeMongoShell();
+        shell.print("MongoDB server version: 4.4.29");
+        AbstractMongoShellScriptExecutor executor = createExecutor(shell, 10000);
+        executor.setOutputTimeoutMillis(100);
+
+        shell.print("mongeez-script-begin-1");
+        shell.print("partial output");
+        try {
+            executor.runScriptBody("while (true) {}");
+            fail();
+        } catch (MongoException e) {
+            assertTrue(e.getMessage().contains("partial output"), e.getMessage());
+        }
+        assertTrue(shell.isDestroyed());
+    }
+
+    @Test
+    public void testShellExitsWhileRunningScript() throws Exception {
+        FakeMongoShell shell = new FakeMongoShell();
+        shell.print("MongoDB server version: 4.4.29");
+        AbstractMongoShellScriptExecutor executor = createExecutor(shell, 10000);
+
+        shell.print("mongeez-script-begin-1");
+        shell.exit();
+        try {
+            executor.runScriptBody("quit()");
+            fail();
+        } catch (MongoException e) {
+            assertTrue(e.getMessage().contains("exited"), e.getMessage());
+        }
+    }
+
+    private AbstractMongoShellScriptExecutor createExecutor(FakeMongoShell shell, long startupTimeoutMillis) {
+        return new AbstractMongoShellScriptExecutor(shell, "mongo", "MongoDB server version", startupTimeoutMillis) {
+        };
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import org.bson.Document;
+import org.testng.annotations.Test;
+
+import java.util.Date;
+
+public class ChangeSetExecutionStatsTest {
+
+    @Test
+    public void testRecordRoundTrip() throws Exception {
+        Date startedAt = new Date(1000);
+        Date endedAt = new Date(1250);
+        Document record = new Document("type", RecordType.changeSetExecution.name())
+                .append("file", "changeset1.js")
+                .append("changeId", "ChangeSet-1")
+                .append("author", "mlysaght");
+        new ChangeSetExecutionStats(startedAt, endedAt, 250, "MongoDriverScriptExecutor", 98, 2).appendTo(record);
+        record.append("host", "node-1").append("release", "1.2.0");
+
+        ChangeSetExecutionStats stats = ChangeSetExecutionStats.fromRecord(record);
+        assertEquals(stats.getFile(), "changeset1.js");
+        assertEquals(stats.getChangeId(), "ChangeSet-1");
+        assertEquals(stats.getAuthor(), "mlysaght");
+        assertEquals(stats.getStartedAt(), startedAt);
+        assertEquals(stats.getEndedAt(), endedAt);
+        assertEquals(stats.getDurationMillis(), 250);
+        assertEquals(stats.getExecutorType(), "MongoDriverScriptExecutor");
+        assertEquals(stats.getScriptBytes(), 98);
+        assertEquals(stats.getDocsAffected(), 2);
+        assertEquals(stats.getHost(), "node-1");
+        assertEquals(stats.getRelease(), "1.2.0");
+    }
+
+    @Test
+    public void testUnknownDocsAffected() throws Exception {
+        Document record = new Document();
+        new ChangeSetExecutionStats(new Date(), new Date(), 0, "MongoShellScriptExecutor", 10, -1).appendTo(record);
+        assertFalse(record.containsKey("docsAffected"));
+        assertEquals(ChangeSetExecutionStats.fromRecord(record).getDocsAffected(), -1);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Scripts assert by throwing, which fails them with a MongoException
+ */
+public class EmbeddedJavascriptScriptExecutorTest {
+    private final String dbName = "test_mongeez";
+    private MongoClient mongoClient;
+    private EmbeddedJavascriptScriptExecutor executor;
+
+    @BeforeClass
+    protected void setUp() throws Exception {
+        // the client only connects once a command is run
+        mongoClient = MongoClients.create();
+        executor = new EmbeddedJavascriptScriptExecutor(mongoClient, dbName);
+    }
+
+    @AfterClass
+    protected void tearDown() throws Exception {
+        mongoClient.close();
+    }
+
+    @Test
+    public void testNewObjectId() throws Exception {
+        executor.runScriptBody("var first = ObjectId(), second = ObjectId();\n" +
+                "if (!/^[0-9a-f]{24}$/.test(first.$oid)) throw new Error('not an object id: ' + first.$oid);\n" +
+                "if (first.$oid === second.$oid) throw new Error('same object id twice');");
+    }
+
+    @Test
+    public void testGivenObjectIdAndNumbers() throws Exception {
+        executor.runScriptBody("var id = ObjectId('5349b4ddd2781d08c09890f3');\n" +
+                "if (id.$oid !== '5349b4ddd2781d08c09890f3') throw new Error(id.$oid);\n" +
+                "if (NumberLong(42).$numberLong !== '42') throw new Error('NumberLong');\n" +
+                "if (NumberInt(7).$numberInt !== '7') throw new Error('NumberInt');\n" +
+                "if (ISODate('2014-04-12T00:00:00Z').$date !== '2014-04-12T00:00:00.000Z') throw new Error('ISODate');");
+    }
+
+    @Test
+    public void testCursorReadsOnlyWhenIterated() throws Exception {
+        executor.runScriptBody("var cursor = db.user.find({ name: 'Michael Lysaght' }).sort({ name: 1 }).skip(1).limit(2);");
+    }
+
+    @Test
+    public void testRegexToJson() throws Exception {
+        executor.runScriptBody("var json = tojson({ name: /^Micha\\.l$/im, tags: [/a/], at: ISODate('2014-04-12T00:00:00Z') });\n" +
+                "var expected = '{\"name\":{\"$regex\":\"^Micha\\\\\\\\.l$\",\"$options\":\"im\"},' +\n" +
+                "    '\"tags\":[{\"$regex\":\"a\",\"$options\":\"\"}],\"at\":{\"$date\":\"2014-04-12T00:00:00.000Z\"}}';\n" +
+                "if (json !== expected) throw new Error(json);");
+    }
+
+    @Test(expectedExceptions = MongoException.class)
+    public void testUnsupportedValueFails() throws Exception {
+        // before the query reaches the database, where it would have been {}
+        executor.runScriptBody("function Name(value) { this.value = value; }\n" +
+                "db.user.remove({ name: new Name('Michael Lysaght') });");
+    }
+
+    @Test(expectedExceptions = MongoException.class)
+    public void testFunctionValueFails() throws Exception {
+        executor.runScriptBody("db.user.remove({ $where: function() { return true; } });");
+    }
+
+    @Test(expectedExceptions = MongoException.class)
+    public void testScriptError() throws Exception {
+        executor.runScriptBody("db.notAFunction();");
+    }
+
+    @Test(groups = "dao")
+    public void testFindIteratesCursor() throws Exception {
+        MongoCollection<Document> users = mongoClient.getDatabase(dbName).getCollection("user");
+        users.drop();
+        executor.runScriptBody("for (var i = 0; i < 5; i++) { db.user.insert({ name: 'user' + i, n: i }); }\n" +
+                "var names = [];\n" +
+                "db.user.find({ n: { $gte: 1 } }).sort({ n: -1 }).limit(3).forEach(function(u) { names.push(u.name); });\n" +
+                "if (names.join() !== 'user4,user3,user2') throw new Error(names.join());\n" +
+                "var cursor = db.user.find({}, { _id: 0, name: 1 }).sort({ n: 1 });\n" +
+                "if (!cursor.hasNext() || cursor.next().name !== 'user0') throw new Error('next');\n" +
+                "cursor.close();\n" +
+                "if (db.user.find().toArray().length !== 5) throw new Error('toArray');\n" +
+                "if (db.user.findOne({ n: 2 }).name !== 'user2') throw new Error('findOne');\n" +
+                "if (db.user.findOne({ n: 9 }) !== null) throw new Error('findOne of nothing');");
+        assertEquals(users.countDocuments(), 5);
+    }
+
+    @Test(groups = "dao")
+    public void testRegexFilter() throws Exception {
+        MongoCollection<Document> users = mongoClient.getDatabase(dbName).getCollection("user");
+        users.drop();
+        executor.runScriptBody("for (var i = 0; i < 5; i++) { db.user.insert({ name: 'user' + i }); }\n" +
+                "db.user.remove({ name: /^USER[12]$/i });\n" +
+                "db.user.update({ name: /^user[34]$/ }, { $set: { kept: true } }, { multi: true });\n" +
+                "if (db.user.find({ name: /user/ }).count() !== 3) throw new Error('find');");
+        assertEquals(users.countDocuments(), 3);
+        assertEquals(users.countDocuments(new Document("kept", true)), 2);
+    }
+
+    @Test(groups = "dao")
+    public void testSaveCountsUpsert() throws Exception {
+        MongoCollection<Document> users = mongoClient.getDatabase(dbName).getCollection("user");
+        users.drop();
+        executor.runScriptBody("var id = ObjectId();\n" +
+                "var inserted = db.user.save({ _id: id, name: 'Michael Lysaght' });\n" +
+                "if (inserted.nUpserted !== 1) throw new Error('upsert counted ' + inserted.nUpserted);\n" +
+                "var replaced = db.user.save({ _id: id, name: 'Oleksii Iepishkin' });\n" +
+                "if (replaced.nUpserted !== 1) throw new Error('replace counted ' + replaced.nUpserted);");
+        assertEquals(users.find().first().getString("name"), "Oleksii Iepishkin");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A shell process whose output is printed by the test, recording the commands it is sent
+ */
+class FakeMongoShell extends Process {
+    private static final int END = -1;
+
+    private final BlockingQueue<Integer> output = new LinkedBlockingQueue<Integer>();
+    private final ByteArrayOutputStream commands = new ByteArrayOutputStream();
+    private volatile boolean destroyed = false;
+
+    void print(String line) {
+        for (byte b : (line + "\n").getBytes(StandardCharsets.UTF_8)) {
+            output.add(b & 0xff);
+        }
+    }
+
+    void exit() {
+        output.add(END);
+    }
+
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
+    String getCommands() {
+        synchronized (commands) {
+            return new String(commands.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                synchronized (commands) {
+                    commands.write(b);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? END : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                int count = 0;
+                try {
+                    // blocks for the first byte only, as a pipe would
+                    Integer next = output.take();
+                    while (next != null && len > count) {
+                        if (next == END) {
+                            output.add(END);
+                            break;
+                        }
+                        b[off + count++] = (byte) (int) next;
+                        next = len > count ? output.poll() : null;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return count > 0 ? count : END;
+            }
+        };
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() {
+        return 0;
+    }
+
+    @Override
+    public int exitValue() {
+        return 0;
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        exit();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LeaseHeartbeatTest {
+
+    @Test
+    public void testRenewsUntilStopped() throws Exception {
+        final CountDownLatch renewed = new CountDownLatch(3);
+        final AtomicInteger renewals = new AtomicInteger();
+        LeaseHeartbeat heartbeat = new LeaseHeartbeat("test-heartbeat", 30, new Runnable() {
+            @Override
+            public void run() {
+                renewals.incrementAndGet();
+                renewed.countDown();
+            }
+        });
+        assertFalse(heartbeat.isRunning());
+
+        heartbeat.start();
+        heartbeat.start();
+        assertTrue(heartbeat.isRunning());
+        assertTrue(renewed.await(5, TimeUnit.SECONDS));
+
+        heartbeat.stop();
+        assertFalse(heartbeat.isRunning());
+        int stoppedAt = renewals.get();
+        Thread.sleep(100);
+        // a renewal running when it was stopped may still finish
+        assertTrue(renewals.get() <= stoppedAt + 1);
+    }
+
+    @Test
+    public void testOwnersAreUnique() throws Exception {
+        assertNotEquals(LeaseHeartbeat.newOwner(), LeaseHeartbeat.newOwner());
+    }
+
+    @Test
+    public void testExpiresAtServerTime() throws Exception {
+        assertEquals(LeaseHeartbeat.expiresAt(60000).toJson(), "{\"$add\": [\"$$NOW\", 60000]}");
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+public class MongeezDaoTest {
+
+    @Test
+    public void testExecutionKeyMatchesSameValues() throws Exception {
+        assertEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", "mlysaght")),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", "mlysaght")));
+        assertNotEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", "mlysaght")),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-2", "mlysaght")));
+    }
+
+    @Test
+    public void testExecutionKeyKeepsTypesApart() throws Exception {
+        assertNotEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", 1, "mlysaght")),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "1", "mlysaght")));
+    }
+
+    @Test
+    public void testExecutionKeyWithNullAttributes() throws Exception {
+        assertEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", null)),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", null)));
+        assertNotEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", null)),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", "null")));
+        assertNotEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", null)),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("changeset1.xml", "ChangeSet-1", "")));
+    }
+
+    @Test
+    public void testExecutionKeyValuesDoNotRunTogether() throws Exception {
+        assertNotEquals(MongeezDao.getExecutionKey(Arrays.<Object>asList("a\u001fb", "c")),
+                MongeezDao.getExecutionKey(Arrays.<Object>asList("a", "b\u001fc")));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class MongoDriverScriptExecutorTest {
+    private final MongoDriverScriptExecutor executor = new MongoDriverScriptExecutor(null, "test_mongeez");
+
+    @Test
+    public void testParseSingleCommand() throws Exception {
+        List<Document> commands = executor.parseCommands("\n  { \"drop\": \"user\" }\n");
+        assertEquals(commands.size(), 1);
+        assertEquals(commands.get(0).getString("drop"), "user");
+    }
+
+    @Test
+    public void testParseCommandArray() throws Exception {
+        List<Document> commands = executor.parseCommands("[\n" +
+                "  { \"insert\": \"user\", \"documents\": [ { \"Name\": \"Michael Lysaght\" } ] },\n" +
+                "  { \"createIndexes\": \"user\", \"indexes\": [ { \"key\": { \"Name\": 1 }, \"name\": \"Name_1\" } ] }\n" +
+                "]");
+        assertEquals(commands.size(), 2);
+        assertEquals(commands.get(0).getString("insert"), "user");
+        assertEquals(commands.get(1).getString("createIndexes"), "user");
+    }
+
+    @Test
+    public void testParseEmptyArray() throws Exception {
+        assertEquals(executor.parseCommands(" [ ]").size(), 0);
+    }
+
+    @Test(expectedExceptions = com.mongodb.MongoException.class)
+    public void testParseArrayOfNonDocuments() throws Exception {
+        executor.parseCommands("[ 1, 2 ]");
+    }
+
+    @Test
+    public void testBulkWriteOperations() throws Exception {
+        Document bulkWrite = executor.parseCommands("{ \"bulkWrite\": \"user\", \"operations\": [\n" +
+                "  { \"insertOne\": { \"document\": { \"Name\": \"Michael Lysaght\" } } },\n" +
+                "  { \"updateOne\": { \"filter\": { \"Name\": \"Michael Lysaght\" }, \"update\": { \"$set\": { \"nyc\": true } }, \"upsert\": true } },\n" +
+                "  { \"updateMany\": { \"filter\": { \"nyc\": true }, \"update\": [ { \"$set\": { \"city\": \"NYC\" } } ] } },\n" +
+                "  { \"replaceOne\": { \"filter\": { \"Name\": \"Oleksii Iepishkin\" }, \"replacement\": { \"Name\": \"Oleksii\" } } },\n" +
+                "  { \"deleteOne\": { \"filter\": { \"Name\": \"Oleksii\" } } },\n" +
+                "  { \"deleteMany\": { \"filter\": { \"nyc\": false } } }\n" +
+                "] }").get(0);
+        List<WriteModel<Document>> models = MongoDriverScriptExecutor.getWriteModels(bulkWrite);
+
+        assertEquals(models.size(), 6);
+        assertEquals(((InsertOneModel<Document>) models.get(0)).getDocument().getString("Name"), "Michael Lysaght");
+        UpdateOneModel<Document> updateOne = (UpdateOneModel<Document>) models.get(1);
+        assertTrue(updateOne.getOptions().isUpsert());
+        assertNotNull(updateOne.getUpdate());
+        UpdateManyModel<Document> updateMany = (UpdateManyModel<Document>) models.get(2);
+        assertEquals(updateMany.getUpdatePipeline().size(), 1);
+        assertEquals(((ReplaceOneModel<Document>) models.get(3)).getReplacement().getString("Name"), "Oleksii");
+        assertTrue(models.get(4) instanceof DeleteOneModel);
+        assertTrue(models.get(5) instanceof DeleteManyModel);
+    }
+
+    @Test(groups = "dao")
+    public void testRunBulkWrite() throws Exception {
+        MongoClient mongoClient = MongoClients.create();
+        try {
+            MongoCollection<Document> users = mongoClient.getDatabase("test_mongeez").getCollection("user");
+            users.drop();
+            MongoDriverScriptExecutor executor = new MongoDriverScriptExecutor(mongoClient, "test_mongeez");
+            executor.runScriptBody("{ \"bulkWrite\": \"user\", \"operations\": [\n" +
+                    "  { \"insertOne\": { \"document\": { \"Name\": \"Michael Lysaght\" } } },\n" +
+                    "  { \"insertOne\": { \"document\": { \"Name\": \"Oleksii Iepishkin\" } } },\n" +
+                    "  { \"updateMany\": { \"filter\": {}, \"update\": { \"$set\": { \"nyc\": true } } } },\n" +
+                    "  { \"deleteOne\": { \"filter\": { \"Name\": \"Oleksii Iepishkin\" } } }\n" +
+                    "] }");
+
+            assertEquals(executor.getDocumentsAffected(), 5);
+            assertEquals(users.countDocuments(), 1);
+            assertEquals(users.find().first().getBoolean("nyc"), Boolean.TRUE);
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    @Test(expectedExceptions = com.mongodb.MongoException.class)
+    public void testBulkWriteUnsupportedOperation() throws Exception {
+        MongoDriverScriptExecutor.getWriteModels(executor.parseCommands(
+                "{ \"bulkWrite\": \"user\", \"operations\": [ { \"insert\": { \"document\": {} } } ] }").get(0));
+    }
+
+    @Test(expectedExceptions = com.mongodb.MongoException.class)
+    public void testBulkWriteWithoutOperations() throws Exception {
+        MongoDriverScriptExecutor.getWriteModels(executor.parseCommands(
+                "{ \"bulkWrite\": \"user\", \"operations\": [] }").get(0));
+    }
+
+    @Test(expectedExceptions = com.mongodb.MongoException.class)
+    public void testBulkWriteUpdateWithoutFilter() throws Exception {
+        MongoDriverScriptExecutor.getWriteModels(executor.parseCommands(
+                "{ \"bulkWrite\": \"user\", \"operations\": [ { \"updateOne\": { \"update\": { \"$set\": { \"a\": 1 } } } } ] }").get(0));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class ProfilerCaptureTest {
+
+    @Test
+    public void testSummarize() throws Exception {
+        List<Document> entries = Arrays.asList(
+                new Document("op", "update").append("ns", "test.organization").append("millis", 12)
+                        .append("planSummary", "COLLSCAN").append("docsExamined", 5000).append("keysExamined", 0)
+                        .append("nreturned", 0),
+                new Document("op", "query").append("ns", "test.user").append("millis", 3)
+                        .append("planSummary", "IXSCAN { name: 1 }").append("docsExamined", 1)
+                        .append("keysExamined", 1).append("nreturned", 1),
+                new Document("op", "remove").append("ns", "test.user").append("millis", 40L)
+                        .append("planSummary", "IXSCAN { name: 1 }").append("docsExamined", 2)
+                        .append("keysExamined", 2),
+                new Document("op", "command").append("ns", "test.$cmd").append("millis", 1));
+
+        Document summary = ProfilerCapture.summarize(entries, 2);
+        assertEquals(summary.getLong("ops").longValue(), 4);
+        assertEquals(summary.getLong("totalMillis").longValue(), 56);
+        assertEquals(summary.getLong("docsExamined").longValue(), 5003);
+        assertEquals(summary.getLong("keysExamined").longValue(), 3);
+        assertEquals(summary.getLong("nreturned").longValue(), 1);
+        assertEquals(summary.getLong("collScans").longValue(), 1);
+
+        List<Document> slowest = summary.getList("slowest", Document.class);
+        assertEquals(slowest.size(), 2);
+        assertEquals(slowest.get(0).getString("op"), "remove");
+        assertFalse(slowest.get(0).getBoolean("collScan"));
+        assertEquals(slowest.get(1).getString("op"), "update");
+        assertTrue(slowest.get(1).getBoolean("collScan"));
+        assertEquals(slowest.get(1).getLong("docsExamined").longValue(), 5000);
+    }
+
+    @Test
+    public void testOverlappingCapturesRestoreLevelOnce() throws Exception {
+        FakeProfilerCapture profiler = new FakeProfilerCapture();
+
+        ProfilerCapture.Window first = profiler.start();
+        ProfilerCapture.Window second = profiler.start();
+        assertEquals(profiler.levels, Collections.singletonList("1/50"));
+
+        first.stop();
+        assertEquals(profiler.level, "1/50");
+        ProfilerCapture.Window third = profiler.start();
+        second.stop();
+        assertEquals(profiler.level, "1/50");
+        third.stop();
+        assertEquals(profiler.levels, Arrays.asList("1/50", "0/100"));
+
+        // the level is read again once no capture is running
+        profiler.level = "2/20";
+        profiler.start().stop();
+        assertEquals(profiler.level, "2/20");
+        assertEquals(profiler.reads, 2);
+    }
+
+    @Test
+    public void testFailedStartRestoresLevel() throws Exception {
+        FakeProfilerCapture profiler = new FakeProfilerCapture();
+        profiler.failProfileRead = true;
+
+        assertNull(profiler.start());
+        assertEquals(profiler.level, "0/100");
+        profiler.failProfileRead = false;
+        profiler.start().stop();
+        assertEquals(profiler.levels, Arrays.asList("1/50", "0/100", "1/50", "0/100"));
+    }
+
+    @Test
+    public void testSummarizeNothingProfiled() throws Exception {
+        Document summary = ProfilerCapture.summarize(Collections.<Document>emptyList(), 5);
+        assertEquals(summary.getLong("ops").longValue(), 0);
+        assertTrue(summary.getList("slowest", Document.class).isEmpty());
+    }
+
+    private static class FakeProfilerCapture extends ProfilerCapture {
+        private String level = "0/100";
+        private final List<String> levels = new ArrayList<String>();
+        private int reads = 0;
+        private boolean failProfileRead = false;
+
+        FakeProfilerCapture() {
+            super((MongoDatabase) null, 50);
+        }
+
+        @Override
+        Document readLevel() {
+            reads++;
+            String[] current = level.split("/");
+            return new Document("was", Integer.parseInt(current[0])).append("slowms", Integer.parseInt(current[1]));
+        }
+
+        @Override
+        void setLevel(Object level, Object slowms) {
+            this.level = level + "/" + slowms;
+            levels.add(this.level);
+        }
+
+        @Override
+        Date getLastProfiled() {
+            if (failProfileRead) {
+                throw new MongoException("not authorized on test to execute command");
+            }
+            return null;
+        }
+
+        @Override
+        Iterable<Document> getProfiled(Date after) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        String getDbName() {
+            return "test";
+        }
+    }
+}
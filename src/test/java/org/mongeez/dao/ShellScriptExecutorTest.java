@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.dao;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class ShellScriptExecutorTest {
+
+    @Test
+    public void testScriptBodyRunsFromTemporaryFile() throws Exception {
+        final String[] script = new String[2];
+        ShellScriptExecutor executor = new ShellScriptExecutor() {
+            @Override
+            public void runScript(String filePath) {
+                try {
+                    script[0] = filePath;
+                    script[1] = new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        executor.runScriptBody("db.user.insert({ \"Name\" : \"Micha\u00ebl Lysaght\" });\n");
+
+        assertEquals(script[1], "db.user.insert({ \"Name\" : \"Micha\u00ebl Lysaght\" });\n");
+        assertFalse(new File(script[0]).exists());
+    }
+}
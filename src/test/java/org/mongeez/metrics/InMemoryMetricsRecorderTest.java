@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class InMemoryMetricsRecorderTest {
+
+    @Test
+    public void testTimersAddUpAcrossTags() throws Exception {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        recorder.recordTime(MetricNames.PARSE, 10, MetricNames.FILE_TAG, "a.js", MetricNames.READER_TAG, "js");
+        recorder.recordTime(MetricNames.PARSE, 30, MetricNames.FILE_TAG, "a.js", MetricNames.READER_TAG, "js");
+        recorder.recordTime(MetricNames.PARSE, 20, MetricNames.FILE_TAG, "b.xml", MetricNames.READER_TAG, "xml");
+        recorder.recordTime(MetricNames.VALIDATION, 5);
+
+        InMemoryMetricsRecorder.TimerStats aFile = recorder.getTimer(MetricNames.PARSE, MetricNames.FILE_TAG, "a.js");
+        assertEquals(aFile.getCount(), 2);
+        assertEquals(aFile.getTotalNanos(), 40);
+        assertEquals(aFile.getMaxNanos(), 30);
+
+        InMemoryMetricsRecorder.TimerStats all = recorder.getTimer(MetricNames.PARSE);
+        assertEquals(all.getCount(), 3);
+        assertEquals(all.getTotalNanos(), 60);
+
+        assertEquals(recorder.getTimer(MetricNames.PARSE, MetricNames.FILE_TAG, "c.js").getCount(), 0);
+        assertEquals(recorder.getTimer(MetricNames.VALIDATION).getTotalNanos(), 5);
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        recorder.increment(MetricNames.CHANGESETS_SKIPPED, 1, MetricNames.REASON_TAG, "context");
+        recorder.increment(MetricNames.CHANGESETS_SKIPPED, 2, MetricNames.REASON_TAG, "executed");
+        recorder.increment(MetricNames.CHANGESETS_EXECUTED, 1, MetricNames.EXECUTOR_TAG, null);
+
+        assertEquals(recorder.getCount(MetricNames.CHANGESETS_SKIPPED), 3);
+        assertEquals(recorder.getCount(MetricNames.CHANGESETS_SKIPPED, MetricNames.REASON_TAG, "executed"), 2);
+        assertEquals(recorder.getCount(MetricNames.CHANGESETS_EXECUTED, MetricNames.EXECUTOR_TAG, null), 1);
+        assertEquals(recorder.getCount(MetricNames.CHANGESETS_FAILED), 0);
+
+        recorder.clear();
+        assertEquals(recorder.getCount(MetricNames.CHANGESETS_SKIPPED), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnpairedTags() throws Exception {
+        new InMemoryMetricsRecorder().increment(MetricNames.CHANGESETS_SKIPPED, 1, MetricNames.REASON_TAG);
+    }
+
+    @Test
+    public void testTimerRecordsOnce() throws Exception {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        MetricsTimer timer = MetricsTimer.start(recorder, MetricNames.VALIDATION);
+        long nanos = timer.stop();
+        timer.close();
+
+        InMemoryMetricsRecorder.TimerStats stats = recorder.getTimer(MetricNames.VALIDATION);
+        assertEquals(stats.getCount(), 1);
+        assertEquals(stats.getTotalNanos(), nanos);
+    }
+
+    @Test
+    public void testMicrometerRecorder() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerMetricsRecorder recorder = new MicrometerMetricsRecorder(registry);
+        recorder.recordTime(MetricNames.SCRIPT_EXECUTION, 2000000, MetricNames.CHANGESET_TAG, "ChangeSet-1",
+                MetricNames.EXECUTOR_TAG, null);
+        recorder.increment(MetricNames.CHANGESETS_EXECUTED, 2, MetricNames.EXECUTOR_TAG, "MongoDriverScriptExecutor");
+
+        assertEquals(registry.get(MetricNames.SCRIPT_EXECUTION).tag(MetricNames.EXECUTOR_TAG, "none").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 2.0);
+        assertTrue(registry.get(MetricNames.CHANGESETS_EXECUTED).counter().count() == 2.0);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.mongeez.commands.ChangeSet;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class ChangeSetParseCacheTest {
+    private File directory;
+    private CountingReader reader;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("mongeez-parse-cache").toFile();
+        reader = new CountingReader();
+    }
+
+    @Test
+    public void testUnchangedFileIsNotParsedAgain() throws Exception {
+        Resource file = new ClassPathResource("changeset_parallel.js", getClass());
+
+        List<ChangeSet> parsed = new ChangeSetParseCache(directory).getChangeSets(file, reader);
+        List<ChangeSet> cached = new ChangeSetParseCache(directory).getChangeSets(file, reader);
+
+        assertEquals(reader.parsed, 1);
+        assertEquals(cached.size(), parsed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(cached.get(i).getChangeId(), parsed.get(i).getChangeId());
+            assertEquals(cached.get(i).getAuthor(), parsed.get(i).getAuthor());
+            assertEquals(cached.get(i).isRunAlways(), parsed.get(i).isRunAlways());
+            assertEquals(cached.get(i).isParallel(), parsed.get(i).isParallel());
+            assertEquals(cached.get(i).getDependsOn(), parsed.get(i).getDependsOn());
+            assertEquals(cached.get(i).getCollections(), parsed.get(i).getCollections());
+            assertEquals(cached.get(i).getFile(), parsed.get(i).getFile());
+            assertEquals(cached.get(i).getResourcePath(), parsed.get(i).getResourcePath());
+            assertEquals(cached.get(i).getCommands().get(0).getBody(), parsed.get(i).getCommands().get(0).getBody());
+            assertNotNull(cached.get(i).getCommands().get(0).getSource());
+        }
+    }
+
+    @Test
+    public void testChangedFileIsParsed() throws Exception {
+        ChangeSetParseCache cache = new ChangeSetParseCache(directory);
+        cache.getChangeSets(new ClassPathResource("changeset1.js", getClass()), reader);
+        List<ChangeSet> changeSets = cache.getChangeSets(new ClassPathResource("changeset2.js", getClass()), reader);
+
+        assertEquals(reader.parsed, 2);
+        assertEquals(changeSets.get(0).getChangeId(), "cs3");
+        assertTrue(changeSets.get(0).isRunAlways());
+    }
+
+    @Test
+    public void testOtherCharsetIsParsed() throws Exception {
+        Resource file = new ClassPathResource("changeset1.js", getClass());
+        new ChangeSetParseCache(directory).getChangeSets(file, reader);
+        CountingReader latin1Reader = new CountingReader(StandardCharsets.ISO_8859_1);
+        new ChangeSetParseCache(directory).getChangeSets(file, latin1Reader);
+        new ChangeSetParseCache(directory).getChangeSets(file, latin1Reader);
+
+        assertEquals(reader.parsed, 1);
+        assertEquals(latin1Reader.parsed, 1);
+    }
+
+    @Test
+    public void testUnusedEntriesAreEvicted() throws Exception {
+        File unused = new File(directory, "unused.changesets");
+        File recent = new File(directory, "recent.changesets");
+        File other = new File(directory, "other.txt");
+        long longAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31);
+        for (File file : Arrays.asList(unused, recent, other)) {
+            assertTrue(file.createNewFile());
+        }
+        assertTrue(unused.setLastModified(longAgo));
+        assertTrue(other.setLastModified(longAgo));
+
+        new ChangeSetParseCache(directory).getChangeSets(new ClassPathResource("changeset1.js", getClass()), reader);
+
+        assertFalse(unused.exists());
+        assertTrue(recent.exists());
+        assertTrue(other.exists());
+    }
+
+    private static class CountingReader extends FormattedJavascriptChangeSetReader {
+        private int parsed = 0;
+
+        CountingReader() {
+        }
+
+        CountingReader(Charset charset) {
+            super(charset);
+        }
+
+        @Override
+        public List<ChangeSet> getChangeSets(Resource file) {
+            parsed++;
+            return super.getChangeSets(file);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.mongeez.validation.ValidationException;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class FilesetXMLReaderTest {
+    @Test
+    public void testGetFiles() throws Exception {
+        List<Resource> files = new FilesetXMLReader().getFiles(new ClassPathResource("mongeez.xml"));
+        assertEquals(files.size(), 2);
+        assertEquals(files.get(0).getFilename(), "changeset1.xml");
+        assertEquals(files.get(1).getFilename(), "changeset2.xml");
+    }
+
+    @Test
+    public void testNoFiles() throws Exception {
+        assertTrue(new FilesetXMLReader().getFiles(new ClassPathResource("mongeez_empty.xml")).isEmpty());
+    }
+
+    @Test(expectedExceptions = ValidationException.class)
+    public void testNoChangeFilesDeclared() throws Exception {
+        new FilesetXMLReader().getFiles(new ClassPathResource("mongeez_no_changefiles_declared.xml"));
+    }
+}
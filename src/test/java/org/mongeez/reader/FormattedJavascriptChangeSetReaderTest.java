@@ -11,15 +11,31 @@
 package org.mongeez.reader;
 
 import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
 import org.mongeez.validation.ValidationException;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 public class FormattedJavascriptChangeSetReaderTest {
@@ -160,6 +176,168 @@ public class FormattedJavascriptChangeSetReaderTest {
         assertEquals("users, organizations", changeSets.get(4).getContexts());
     }
 
+    @Test
+    public void testChangeSetWithParallel() throws Exception {
+        List<ChangeSet> changeSets = parse("changeset_parallel.js");
+        assertEquals(changeSets.size(), 3);
+        assertTrue(changeSets.get(0).isParallel());
+
+        assertTrue(changeSets.get(1).isParallel());
+        assertTrue(changeSets.get(1).isRunAlways());
+
+        assertFalse(changeSets.get(2).isParallel());
+        assertEquals(changeSets.get(2).getDependsOnIds(), Arrays.asList("ChangeSet-1", "ChangeSet-2"));
+        assertEquals(changeSets.get(2).getCollectionNames(), Arrays.asList("car", "garage.cars"));
+        assertFalse(changeSets.get(2).isOrdered());
+    }
+
+    @Test
+    public void testChangeSetHeaderAttributes() throws Exception {
+        List<ChangeSet> changeSets = parseContent("//mongeez formatted javascript\n" +
+                "//ChangeSet  joe:cs-1 RUNALWAYS:true runAlways:false contexts:users, orgs contexts: dependsOn:cs0,\n" +
+                "db.user.find();\n" +
+                "//changeset joe:cs2 runAlways:TRUE collections:a.b,c-d,,e parallel:\n" +
+                "db.user.find();\n" +
+                "// changeset joe cs3\n" +
+                "//changesetjoe:cs4\n");
+        assertEquals(changeSets.size(), 2);
+
+        ChangeSet first = changeSets.get(0);
+        assertEquals(first.getAuthor(), "joe");
+        assertEquals(first.getChangeId(), "cs-1");
+        assertFalse(first.isRunAlways());
+        assertEquals(first.getContexts(), "users, orgs");
+        assertEquals(first.getDependsOn(), "cs0");
+
+        ChangeSet second = changeSets.get(1);
+        assertTrue(second.isRunAlways());
+        assertFalse(second.isParallel());
+        assertEquals(second.getCollections(), "a.b,c-d");
+        assertEquals(second.getCommands().get(0).getBody(),
+                "db.user.find();\n// changeset joe cs3\n//changesetjoe:cs4\n");
+    }
+
+    @Test
+    public void testLineEndings() throws Exception {
+        List<ChangeSet> changeSets = parseContent("//mongeez formatted javascript\r\n" +
+                "//changeset joe:cs1\r\ndb.a.find();\r\n\r\n" +
+                "//changeset joe:cs2\rdb.b.find();\rdb.c.find();");
+        assertEquals(changeSets.size(), 2);
+        assertEquals(changeSets.get(0).getCommands().get(0).getBody(), "db.a.find();\n\n");
+        assertEquals(changeSets.get(1).getCommands().get(0).getBody(), "db.b.find();\ndb.c.find();\n");
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        File file = File.createTempFile("changeset_large", ".js");
+        try {
+            StringBuilder content = new StringBuilder("//mongeez formatted javascript\n");
+            int changeSetCount = 0;
+            while (content.length() < 2 * 1024 * 1024) {
+                content.append("//changeset joe:cs").append(changeSetCount++).append('\n');
+                content.append("db.user.insert({ \"Name\" : \"Micha\u00ebl\", \"Index\" : ").append(changeSetCount).append(" });\n");
+            }
+            Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+            List<ChangeSet> changeSets = new FormattedJavascriptChangeSetReader().getChangeSets(new FileSystemResource(file));
+            assertEquals(changeSets.size(), changeSetCount);
+            assertEquals(changeSets.get(changeSetCount - 1).getChangeId(), "cs" + (changeSetCount - 1));
+            assertEquals(changeSets.get(changeSetCount - 1).getCommands().get(0).getBody(),
+                    "db.user.insert({ \"Name\" : \"Micha\u00ebl\", \"Index\" : " + changeSetCount + " });\n");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testScriptsAreReadLazily() throws Exception {
+        List<ChangeSet> changeSets = parse("changeset1.js");
+        Script script = changeSets.get(1).getCommands().get(0);
+        assertNotNull(script.getSource());
+        // the file has \r\n line endings, which the body doesn't
+        assertEquals(script.getSource().getLength(), 98);
+        assertEquals(script.getBody(), "db.user.insert({ \"Name\" : \"Michael Lysaght\"});\n" +
+                "db.user.insert({ \"Name\" : \"Oleksii Iepishkin\"});\n");
+    }
+
+    @Test
+    public void testScriptsOfStreamsAreKept() throws Exception {
+        Resource file = new InputStreamResource(new ClassPathResource("changeset1.js", getClass()).getInputStream());
+        List<ChangeSet> changeSets = new FormattedJavascriptChangeSetReader().getChangeSets(file);
+        Script script = changeSets.get(1).getCommands().get(0);
+        assertNull(script.getSource());
+        assertEquals(script.getBody(), "db.user.insert({ \"Name\" : \"Michael Lysaght\"});\n" +
+                "db.user.insert({ \"Name\" : \"Oleksii Iepishkin\"});\n");
+    }
+
+    @Test
+    public void testScriptsOfResourcesOutsideTheFileSystemAreKept() throws Exception {
+        Resource file = new ByteArrayResource(("//mongeez formatted javascript\n//changeset joe:cs1\n" +
+                "db.user.insert({ \"Name\" : \"Michael Lysaght\"});\n").getBytes(StandardCharsets.UTF_8), "changeset.js");
+        List<ChangeSet> changeSets = new FormattedJavascriptChangeSetReader().getChangeSets(file);
+        assertNull(changeSets.get(0).getCommands().get(0).getSource());
+        assertEquals(changeSets.get(0).getCommands().get(0).getBody(), "db.user.insert({ \"Name\" : \"Michael Lysaght\"});\n");
+    }
+
+    @Test
+    public void testNotAsciiCompatibleCharset() throws Exception {
+        Resource file = new ByteArrayResource(("//mongeez formatted javascript\r\n//changeset joe:cs1\r\n" +
+                "db.user.insert({ \"Name\" : \"Micha\u00ebl\"});").getBytes(StandardCharsets.UTF_16), "changeset.js");
+        List<ChangeSet> changeSets = new FormattedJavascriptChangeSetReader(StandardCharsets.UTF_16).getChangeSets(file);
+        assertEquals(changeSets.size(), 1);
+        assertNull(changeSets.get(0).getCommands().get(0).getSource());
+        assertEquals(changeSets.get(0).getCommands().get(0).getBody(), "db.user.insert({ \"Name\" : \"Micha\u00ebl\"});\n");
+    }
+
+    @Test
+    public void testCompressedFile() throws Exception {
+        File file = File.createTempFile("changeset", ".js.gz");
+        try {
+            try (InputStream in = new ClassPathResource("changeset1.js", getClass()).getInputStream();
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            FormattedJavascriptChangeSetReader reader = new FormattedJavascriptChangeSetReader();
+            Resource resource = new FileSystemResource(file);
+            assertTrue(reader.supports(resource));
+            List<ChangeSet> changeSets = reader.getChangeSets(resource);
+            List<ChangeSet> expected = parse("changeset1.js");
+            assertEquals(changeSets.size(), expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                // decompressing from the start for every script would be quadratic, so compressed scripts are kept
+                Script script = changeSets.get(i).getCommands().get(0);
+                assertNull(script.getSource());
+                assertEquals(script.getBody(), expected.get(i).getCommands().get(0).getBody());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testOpenBody() throws Exception {
+        Script script = parse("changeset1.js").get(0).getCommands().get(0);
+        StringBuilder body = new StringBuilder();
+        try (Reader reader = script.openBody()) {
+            char[] buffer = new char[7];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        }
+        assertEquals(body.toString(), script.getBody());
+    }
+
+    private List<ChangeSet> parseContent(String content) {
+        Resource file = new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8), "changeset.js");
+        return new FormattedJavascriptChangeSetReader().getChangeSets(file);
+    }
+
     private List<ChangeSet> parse(String fileName) {
         return parse(null, fileName);
     }
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares the parse throughput and allocation per changeset of {@link XmlChangeSetReader} and
+ * {@link DigesterXmlChangeSetReader} on a generated changelog of several megabytes. It isn't part of the test run;
+ * run the main method with the test classpath, optionally passing the number of changesets:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.mongeez.reader.XmlChangeSetReaderBenchmark
+ * </pre>
+ */
+public class XmlChangeSetReaderBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int changeSetCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        byte[] changeLog = createChangeLog(changeSetCount);
+        System.out.printf("Changelog of %d changesets, %.1f MB%n", changeSetCount, changeLog.length / 1048576.0);
+
+        run("digester", new DigesterXmlChangeSetReader(), changeLog, changeSetCount);
+        run("stax", new XmlChangeSetReader(), changeLog, changeSetCount);
+    }
+
+    private static void run(String name, ChangeSetReader reader, byte[] changeLog, int changeSetCount) {
+        Resource file = new ByteArrayResource(changeLog, "benchmark.xml");
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            check(reader.getChangeSets(file).size(), changeSetCount);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            check(reader.getChangeSets(file).size(), changeSetCount);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-9s %8.1f MB/s %10.0f changesets/s", name,
+                changeLog.length * (double) MEASURED_ROUNDS / 1048576.0 / seconds,
+                changeSetCount * (double) MEASURED_ROUNDS / seconds);
+        if (allocated >= 0) {
+            System.out.printf(" %8d bytes allocated/changeset", allocated / ((long) changeSetCount * MEASURED_ROUNDS));
+        }
+        System.out.println();
+    }
+
+    private static void check(int parsed, int expected) {
+        if (parsed != expected) {
+            throw new IllegalStateException("Parsed " + parsed + " changesets instead of " + expected);
+        }
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+            if (hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+                return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] createChangeLog(int changeSetCount) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mongoChangeLog>\n");
+        for (int i = 0; i < changeSetCount; i++) {
+            xml.append("    <changeSet changeId=\"ChangeSet-").append(i)
+                    .append("\" author=\"benchmark\" contexts=\"users\" failOnError=\"true\">\n")
+                    .append("        <script>\n")
+                    .append("            db.user.insert({ \"Name\" : \"User ").append(i).append("\", \"Index\" : ").append(i).append(" });\n")
+                    .append("            db.user.update({ \"Index\" : ").append(i).append(" }, { $set : { \"Active\" : true } });\n")
+                    .append("        </script>\n")
+                    .append("    </changeSet>\n");
+        }
+        return xml.append("</mongoChangeLog>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.reader;
+
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+import org.mongeez.validation.ValidationException;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class XmlChangeSetReaderTest {
+    @Test
+    public void testGetChangeSets() throws Exception {
+        List<ChangeSet> changeSets = new XmlChangeSetReader().getChangeSets(new ClassPathResource("changeset1.xml"));
+        assertEquals(changeSets.size(), 2);
+        assertEquals(changeSets.get(0).getChangeId(), "ChangeSet-1");
+        assertEquals(changeSets.get(0).getFile(), "changeset1.xml");
+        assertTrue(changeSets.get(0).getCommands().get(0).getBody().contains("10Gen"));
+        assertEquals(changeSets.get(1).getChangeId(), "ChangeSet-2");
+    }
+
+    @Test
+    public void testCompressedFile() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (InputStream in = new ClassPathResource("changeset1.xml").getInputStream();
+             OutputStream out = new GZIPOutputStream(compressed)) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        Resource file = new ByteArrayResource(compressed.toByteArray()) {
+            @Override
+            public String getFilename() {
+                return "changeset1.xml.gz";
+            }
+        };
+
+        List<ChangeSet> changeSets = new XmlChangeSetReader().getChangeSets(file);
+        assertEquals(changeSets.size(), 2);
+        assertEquals(changeSets.get(1).getChangeId(), "ChangeSet-2");
+        assertEquals(changeSets.get(1).getFile(), "changeset1.xml.gz");
+    }
+
+    @Test
+    public void testAttributesAndBodies() throws Exception {
+        List<ChangeSet> changeSets = new XmlChangeSetReader().getChangeSets(xml(
+                "<?xml version=\"1.0\"?>\n" +
+                "<mongoChangeLog>\n" +
+                "    <changeSet changeId=\"cs1\" author=\"joe\" runAlways=\"true\" failOnError=\"no\" contexts=\"users\"" +
+                " dependsOn=\"cs0\" collections=\"user\" unknown=\"ignored\">\n" +
+                "        <script><![CDATA[ db.user.insert({a: 1 < 2}); ]]></script>\n" +
+                "        <note>not a script</note>\n" +
+                "        <script>\n            db.user.insert({b: \"&amp;\"});\n        </script>\n" +
+                "    </changeSet>\n" +
+                "    <comment><changeSet changeId=\"nested\"/></comment>\n" +
+                "    <changeSet changeId=\"cs2\" author=\"joe\"/>\n" +
+                "</mongoChangeLog>\n"));
+        assertEquals(changeSets.size(), 2);
+
+        ChangeSet changeSet = changeSets.get(0);
+        assertEquals(changeSet.getChangeId(), "cs1");
+        assertEquals(changeSet.getAuthor(), "joe");
+        assertTrue(changeSet.isRunAlways());
+        assertFalse(changeSet.isFailOnError());
+        assertEquals(changeSet.getContexts(), "users");
+        assertEquals(changeSet.getDependsOn(), "cs0");
+        assertEquals(changeSet.getCollections(), "user");
+        assertEquals(changeSet.getCommands().size(), 2);
+        assertEquals(changeSet.getCommands().get(0).getBody(), "db.user.insert({a: 1 < 2});");
+        assertEquals(changeSet.getCommands().get(1).getBody(), "db.user.insert({b: \"&\"});");
+
+        assertEquals(changeSets.get(1).getChangeId(), "cs2");
+        assertTrue(changeSets.get(1).getCommands().isEmpty());
+    }
+
+    @Test
+    public void testOtherRootElement() throws Exception {
+        assertTrue(new XmlChangeSetReader().getChangeSets(xml("<test><changeSet changeId=\"cs1\"/></test>")).isEmpty());
+    }
+
+    @Test(expectedExceptions = ValidationException.class)
+    public void testMalformed() throws Exception {
+        new XmlChangeSetReader().getChangeSets(xml("<mongoChangeLog><changeSet changeId=\"cs1\"></mongoChangeLog>"));
+    }
+
+    @Test(expectedExceptions = ValidationException.class)
+    public void testInvalidBoolean() throws Exception {
+        new XmlChangeSetReader().getChangeSets(xml("<mongoChangeLog><changeSet runAlways=\"sometimes\"/></mongoChangeLog>"));
+    }
+
+    @Test
+    public void testSameAsDigesterReader() throws Exception {
+        for (String file : Arrays.asList("changeset1.xml", "changeset2.xml", "changeset_with_contexts.xml",
+                "changeset_parallel.xml", "changeset_commands.xml", "failing_changeset.xml", "empty_changeset.xml")) {
+            Resource resource = new ClassPathResource(file);
+            List<ChangeSet> expected = new DigesterXmlChangeSetReader().getChangeSets(resource);
+            List<ChangeSet> actual = new XmlChangeSetReader().getChangeSets(resource);
+            assertEquals(actual.size(), expected.size(), file);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(toString(actual.get(i)), toString(expected.get(i)), file);
+            }
+        }
+    }
+
+    private String toString(ChangeSet changeSet) {
+        StringBuilder builder = new StringBuilder()
+                .append(changeSet.getChangeId()).append('|')
+                .append(changeSet.getAuthor()).append('|')
+                .append(changeSet.getFile()).append('|')
+                .append(changeSet.getResourcePath()).append('|')
+                .append(changeSet.getContexts()).append('|')
+                .append(changeSet.getDependsOn()).append('|')
+                .append(changeSet.getCollections()).append('|')
+                .append(changeSet.isRunAlways()).append('|')
+                .append(changeSet.isFailOnError()).append('|')
+                .append(changeSet.isParallel());
+        for (Script script : changeSet.getCommands()) {
+            builder.append('|').append(script.getBody());
+        }
+        return builder.toString();
+    }
+
+    private Resource xml(String content) {
+        return new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8), "changeset.xml");
+    }
+
+    @Test
+    public void testGetChangeSetsConcurrently() throws Exception {
+        final XmlChangeSetReader reader = new XmlChangeSetReader();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<ChangeSet>>> results = new ArrayList<Future<List<ChangeSet>>>();
+            for (int i = 0; i < 64; i++) {
+                final String file = i % 2 == 0 ? "changeset1.xml" : "changeset2.xml";
+                results.add(executor.submit(new Callable<List<ChangeSet>>() {
+                    @Override
+                    public List<ChangeSet> call() {
+                        return reader.getChangeSets(new ClassPathResource(file));
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                List<ChangeSet> changeSets = results.get(i).get();
+                String file = i % 2 == 0 ? "changeset1.xml" : "changeset2.xml";
+                assertEquals(changeSets.size(), 2);
+                for (ChangeSet changeSet : changeSets) {
+                    assertEquals(changeSet.getFile(), file);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
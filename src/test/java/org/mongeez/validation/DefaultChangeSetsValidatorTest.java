@@ -65,6 +65,36 @@ public class DefaultChangeSetsValidatorTest {
         validator.validate(changeSets);
     }
 
+    @Test(expectedExceptions = ValidationException.class)
+    public void testDetectDependencyDeclaredAfter() throws Exception {
+        DefaultChangeSetsValidator validator = new DefaultChangeSetsValidator();
+
+        List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+
+        changeSets.add(makeChangeSet("1"));
+        changeSets.add(makeChangeSet("2", "3"));
+        changeSets.add(makeChangeSet("3"));
+        validator.validate(changeSets);
+    }
+
+    @Test
+    public void testValidateDependencies() throws Exception {
+        DefaultChangeSetsValidator validator = new DefaultChangeSetsValidator();
+
+        List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+
+        changeSets.add(makeChangeSet("1"));
+        changeSets.add(makeChangeSet("2"));
+        changeSets.add(makeChangeSet("3", "1, 2"));
+        validator.validate(changeSets);
+    }
+
+    private ChangeSet makeChangeSet(String id, String dependsOn) {
+        ChangeSet changeSet = makeChangeSet(id);
+        changeSet.setDependsOn(dependsOn);
+        return changeSet;
+    }
+
     private ChangeSet makeChangeSet(String id) {
         ChangeSet changeSet = new ChangeSet();
         changeSet.setChangeId(id);
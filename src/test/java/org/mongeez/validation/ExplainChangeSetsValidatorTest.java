@@ -0,0 +1,143 @@
+package org.mongeez.validation;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.mongeez.commands.ChangeSet;
+import org.mongeez.commands.Script;
+import org.mongeez.commands.ScriptSource;
+import org.testng.annotations.Test;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+public class ExplainChangeSetsValidatorTest {
+
+    @Test
+    public void testUpdateStatementsExplainedOneByOne() throws Exception {
+        Document command = Document.parse("{ \"update\": \"user\", \"updates\": ["
+                + " { \"q\": { \"name\": \"a\" }, \"u\": { \"$set\": { \"nyc\": true } } },"
+                + " { \"q\": { \"name\": \"b\" }, \"u\": { \"$set\": { \"nyc\": false } } } ] }");
+
+        List<Document> explainable = ExplainChangeSetsValidator.toExplainable(command);
+        assertEquals(explainable.size(), 2);
+        assertEquals(explainable.get(1).getString("update"), "user");
+        assertEquals(explainable.get(1).getList("updates", Document.class).get(0).get("q", Document.class)
+                .getString("name"), "b");
+    }
+
+    @Test
+    public void testOnlyQueriesExplained() throws Exception {
+        assertEquals(ExplainChangeSetsValidator.toExplainable(Document.parse("{ \"find\": \"user\" }")).size(), 1);
+        assertTrue(ExplainChangeSetsValidator.toExplainable(
+                Document.parse("{ \"insert\": \"user\", \"documents\": [ { \"name\": \"a\" } ] }")).isEmpty());
+    }
+
+    @Test
+    public void testCollectionScanInWinningPlan() throws Exception {
+        Document explain = Document.parse("{ \"queryPlanner\": {"
+                + " \"winningPlan\": { \"stage\": \"UPDATE\", \"inputStage\": { \"stage\": \"COLLSCAN\" } },"
+                + " \"rejectedPlans\": [ { \"stage\": \"SORT\" } ] },"
+                + " \"command\": { \"find\": \"user\", \"sort\": { \"name\": 1 } } }");
+
+        assertEquals(ExplainChangeSetsValidator.findPlanProblems(explain),
+                Collections.singleton(ExplainChangeSetsValidator.COLLECTION_SCAN));
+    }
+
+    @Test
+    public void testInMemorySortOnShardAndInAggregation() throws Exception {
+        Document sharded = Document.parse("{ \"queryPlanner\": { \"winningPlan\": { \"stage\": \"SINGLE_SHARD\","
+                + " \"shards\": [ { \"winningPlan\": { \"stage\": \"SORT\","
+                + " \"inputStage\": { \"stage\": \"IXSCAN\" } } } ] } } }");
+        assertEquals(ExplainChangeSetsValidator.findPlanProblems(sharded),
+                Collections.singleton(ExplainChangeSetsValidator.IN_MEMORY_SORT));
+
+        Document aggregation = Document.parse("{ \"stages\": ["
+                + " { \"$cursor\": { \"queryPlanner\": { \"winningPlan\": { \"stage\": \"IXSCAN\" } } } },"
+                + " { \"$sort\": { \"sortKey\": { \"name\": 1 } } } ] }");
+        Set<String> problems = ExplainChangeSetsValidator.findPlanProblems(aggregation);
+        assertEquals(problems, Collections.singleton(ExplainChangeSetsValidator.IN_MEMORY_SORT));
+    }
+
+    @Test
+    public void testShellScriptsNotExplained() throws Exception {
+        // the client only connects once a command is run
+        MongoClient client = MongoClients.create();
+        try {
+            Script script = new Script();
+            script.setBody("db.user.update({ name: 'a' }, { $set: { nyc: true } });");
+            ChangeSet changeSet = new ChangeSet();
+            changeSet.setChangeId("1");
+            changeSet.add(script);
+
+            new ExplainChangeSetsValidator(client, "test").validate(Arrays.asList(changeSet));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testBodiesNotLoaded() throws Exception {
+        MongoClient client = MongoClients.create();
+        try {
+            Script shell = new Script();
+            shell.setSource(new UnloadableSource("\n  db.user.update({ name: 'a' }, { $set: { nyc: true } });", 100));
+            Script large = new Script();
+            large.setSource(new UnloadableSource("{ \"find\": \"user\" }", Script.LARGE_BODY_LENGTH + 1));
+            ChangeSet changeSet = new ChangeSet();
+            changeSet.setChangeId("1");
+            changeSet.add(shell);
+            changeSet.add(large);
+
+            new ExplainChangeSetsValidator(client, "test").validate(Arrays.asList(changeSet));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testCommandDocumentDetected() throws Exception {
+        Script command = new Script();
+        command.setSource(new UnloadableSource(" \r\n[ { \"find\": \"user\" } ]", 100));
+        assertTrue(ExplainChangeSetsValidator.isCommandDocument(command));
+
+        Script shell = new Script();
+        shell.setBody("db.user.find({})");
+        assertFalse(ExplainChangeSetsValidator.isCommandDocument(shell));
+        assertFalse(ExplainChangeSetsValidator.isCommandDocument(new Script()));
+    }
+
+    private static class UnloadableSource implements ScriptSource {
+        private final String body;
+        private final long length;
+
+        UnloadableSource(String body, long length) {
+            this.body = body;
+            this.length = length;
+        }
+
+        @Override
+        public String load() {
+            throw new AssertionError("The body was loaded whole");
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public Reader open() {
+            return new StringReader(body);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.mongeez.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+@Test
+public class JfrEventsTest {
+
+    @Test
+    public void testNotTracedWithoutRecording() throws Exception {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        MetricsTimer timer = MetricsTimer.start(recorder, MetricNames.PARSE);
+        assertFalse(timer.isTraced());
+        timer.stop();
+        assertEquals(recorder.getTimer(MetricNames.PARSE).getCount(), 1);
+    }
+
+    @Test
+    public void testEventsCommitted() throws Exception {
+        File dump = File.createTempFile("mongeez", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.mongeez.ScriptExecution");
+            recording.disable("org.mongeez.Parse");
+            recording.start();
+
+            MetricsTimer succeeded = MetricsTimer.start(NoopMetricsRecorder.INSTANCE, MetricNames.SCRIPT_EXECUTION,
+                    MetricNames.CHANGESET_TAG, "ChangeSet-1", MetricNames.FILE_TAG, "changeset1.js");
+            assertTrue(succeeded.isTraced());
+            succeeded.setBytes(42).stop();
+            succeeded.close();
+
+            try (MetricsTimer failed = MetricsTimer.start(NoopMetricsRecorder.INSTANCE, MetricNames.SCRIPT_EXECUTION,
+                    MetricNames.CHANGESET_TAG, "ChangeSet-2")) {
+                failed.tag(MetricNames.EXECUTOR_TAG, "MongoDriverScriptExecutor");
+            }
+            // disabled in the recording
+            assertFalse(MetricsTimer.start(NoopMetricsRecorder.INSTANCE, MetricNames.PARSE).isTraced());
+
+            recording.stop();
+            recording.dump(dump.toPath());
+        }
+        try {
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath());
+            assertEquals(events.size(), 2);
+            boolean inOrder = events.get(0).getString("changeSet").equals("ChangeSet-1");
+            RecordedEvent first = events.get(inOrder ? 0 : 1);
+            RecordedEvent second = events.get(inOrder ? 1 : 0);
+
+            assertEquals(first.getString("file"), "changeset1.js");
+            assertEquals(first.getLong("bytes"), 42);
+            assertEquals(first.getString("outcome"), "success");
+
+            assertEquals(second.getString("changeSet"), "ChangeSet-2");
+            assertEquals(second.getString("executor"), "MongoDriverScriptExecutor");
+            assertEquals(second.getLong("bytes"), -1);
+            assertEquals(second.getString("outcome"), "failure");
+        } finally {
+            dump.delete();
+        }
+    }
+}
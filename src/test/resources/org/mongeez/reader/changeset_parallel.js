@@ -0,0 +1,10 @@
+// mongeez formatted javascript
+
+// changeset exell:ChangeSet-1 parallel:true
+db.user.insert({"Name": "Michael Lysaght"})
+
+// changeset exell:ChangeSet-2 parallel:true runAlways:true
+db.house.insert({"Type": "Bungalow"});
+
+// changeset exell:ChangeSet-3 dependsOn:ChangeSet-1, ChangeSet-2 collections:car,garage.cars
+db.car.insert({"Type": "Porsche"});